@@ -0,0 +1,204 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compiles a document into an Advisor file, choosing the keyword table from the document's own text. There is no
+ * source format for help text, so the input is any loaded document, usually an existing file being recompiled.
+ * <p>
+ * Each compression stage can be turned off, and {@link #compare} compiles every combination to report how each trades
+ * file size against decode speed. Phrase selection and topic encoding run in parallel on the compiler's own pool.
+ */
+class AdvisorCompiler {
+  /** Topics decoded before {@link #compare} starts timing, enough for the JIT to have compiled the decoder. */
+  private static final long WARM_UP_TOPICS = 200_000;
+
+  enum PhraseMode {
+    /** No keyword table. */
+    NONE,
+    /** Keywords replace whole words only. */
+    WORDS,
+    /** Keywords also replace parts of longer words. */
+    EXTENDED
+  }
+
+  /** One combination of compression stages. */
+  static class Configuration {
+    final PhraseMode phraseMode;
+    final boolean runLengthEncoding;
+    final boolean huffmanCoding;
+
+    Configuration(PhraseMode phraseMode, boolean runLengthEncoding, boolean huffmanCoding) {
+      this.phraseMode = phraseMode;
+      this.runLengthEncoding = runLengthEncoding;
+      this.huffmanCoding = huffmanCoding;
+    }
+
+    /** Returns every combination of compression stages, most compressed first. */
+    static List<Configuration> all() {
+      List<Configuration> configurations = new ArrayList<>();
+      for (PhraseMode phraseMode : new PhraseMode[] { PhraseMode.EXTENDED, PhraseMode.WORDS, PhraseMode.NONE }) {
+        for (boolean huffmanCoding : new boolean[] { true, false }) {
+          for (boolean runLengthEncoding : new boolean[] { true, false }) {
+            configurations.add(new Configuration(phraseMode, runLengthEncoding, huffmanCoding));
+          }
+        }
+      }
+      return configurations;
+    }
+
+    @Override
+    public String toString() {
+      return "phrases=" + phraseMode.name().toLowerCase(Locale.UK) + (runLengthEncoding ? ",rle" : "")
+              + (huffmanCoding ? ",huffman" : "");
+    }
+  }
+
+  /** How a configuration performed on a document. */
+  static class Result {
+    final Configuration configuration;
+    final AdvisorDocumentWriter.Statistics statistics;
+    final long compileNanos;
+
+    /** Best time over the measured passes to decode every topic of the compiled file. */
+    long decodeNanos;
+
+    Result(Configuration configuration, AdvisorDocumentWriter.Statistics statistics, long compileNanos) {
+      this.configuration = configuration;
+      this.statistics = statistics;
+      this.compileNanos = compileNanos;
+    }
+
+    double getDecodeMBPerSecond() {
+      return statistics.decompressedBytes / 1e6 / (decodeNanos / 1e9);
+    }
+  }
+
+  private final Charset charset;
+  private final ForkJoinPool pool;
+
+  AdvisorCompiler(Charset charset, int threads) {
+    this.charset = charset;
+    this.pool = new ForkJoinPool(threads);
+  }
+
+  /**
+   * Compiles a document to a file with the given configuration. The document's topics are read from several threads.
+   */
+  Result compile(AdvisorDocument document, Configuration configuration, File outputFile) throws IOException {
+    long start = System.nanoTime();
+    try {
+      AdvisorDocumentWriter.Statistics statistics = pool.submit(() -> {
+        List<byte[]> keywordTable = configuration.phraseMode == PhraseMode.NONE ? Collections.emptyList()
+                : new PhraseDictionaryBuilder(charset, configuration.phraseMode == PhraseMode.EXTENDED)
+                        .build(document);
+        TopicEncoder encoder = new TopicEncoder(charset, keywordTable,
+                configuration.phraseMode == PhraseMode.EXTENDED, configuration.runLengthEncoding);
+        return new AdvisorDocumentWriter(encoder, configuration.huffmanCoding).write(document, outputFile);
+      }).get();
+      return new Result(configuration, statistics, System.nanoTime() - start);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while compiling " + outputFile, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException("Failed to compile " + outputFile, e.getCause());
+    }
+  }
+
+  /**
+   * Compiles the document with each configuration to a temporary file and measures how fast it decodes, on the calling
+   * thread. Decoding is first warmed up over all the compiled files, so that every configuration is timed with the
+   * decoder already compiled by the JIT; then the passes go round the configurations in turn, and each takes its best.
+   */
+  List<Result> compare(AdvisorDocument document, List<Configuration> configurations, int passes)
+          throws IOException {
+    List<Result> results = new ArrayList<>();
+    List<CompressedResidentAdvisorDocument> compiledDocuments = new ArrayList<>();
+    List<File> compiledFiles = new ArrayList<>();
+    try {
+      for (Configuration configuration : configurations) {
+        File compiledFile = File.createTempFile("advisor-compile", ".hlp");
+        compiledFiles.add(compiledFile);
+        Result result = compile(document, configuration, compiledFile);
+        result.decodeNanos = Long.MAX_VALUE;
+        results.add(result);
+        compiledDocuments.add(new AdvisorDocumentLoader(charset).loadCompressedDocument(compiledFile));
+      }
+
+      long warmUpTopics = 0;
+      while (warmUpTopics < WARM_UP_TOPICS) {
+        for (CompressedResidentAdvisorDocument compiled : compiledDocuments) {
+          decodeAll(compiled);
+          warmUpTopics += Math.max(1, compiled.getTopics().size());
+        }
+      }
+
+      for (int pass = 0; pass < passes; pass++) {
+        for (int i = 0; i < compiledDocuments.size(); i++) {
+          long start = System.nanoTime();
+          decodeAll(compiledDocuments.get(i));
+          results.get(i).decodeNanos = Math.min(results.get(i).decodeNanos, System.nanoTime() - start);
+        }
+      }
+    } finally {
+      for (File compiledFile : compiledFiles) {
+        Files.delete(compiledFile.toPath());
+      }
+    }
+    return results;
+  }
+
+  private static void decodeAll(AdvisorDocument document) {
+    for (HelpTopic topic : document.getTopics()) {
+      topic.getText();
+    }
+  }
+
+  /** Returns the result with the smallest file, or the fastest decoding. */
+  static Result choose(List<Result> results, boolean optimizeForSpeed) {
+    Comparator<Result> bySize = Comparator.comparingLong(result -> result.statistics.fileBytes);
+    Comparator<Result> bySpeed = Comparator.comparingLong(result -> result.decodeNanos);
+    return Collections.min(results, optimizeForSpeed ? bySpeed.thenComparing(bySize) : bySize.thenComparing(bySpeed));
+  }
+
+  static void outputComparison(long originalBytes, List<Result> results, PrintStream out) {
+    out.printf("%-30s %10s %7s %10s %8s %10s %11s\n", "Configuration", "Bytes", "Ratio", "Keywords", "Compile",
+            "Decode", "Per topic");
+    for (Result result : results) {
+      AdvisorDocumentWriter.Statistics statistics = result.statistics;
+      out.printf(Locale.ROOT, "%-30s %10d %7.3f %10d %6d ms %5.1f MB/s %8.2f us\n", result.configuration,
+              statistics.fileBytes, (double) statistics.fileBytes / originalBytes, statistics.keywordCount,
+              result.compileNanos / 1_000_000, result.getDecodeMBPerSecond(),
+              result.decodeNanos / 1e3 / Math.max(1, statistics.topicCount));
+    }
+  }
+
+  static void outputStatistics(Result result, PrintStream out) {
+    AdvisorDocumentWriter.Statistics statistics = result.statistics;
+    out.printf("Compiled %d topics with %s in %d ms\n", statistics.topicCount, result.configuration,
+            result.compileNanos / 1_000_000);
+    out.printf("  Decompressed text: %d bytes\n", statistics.decompressedBytes);
+    out.printf("  After phrase and run-length encoding: %d bytes\n", statistics.encodedBytes);
+    out.printf("  Topic text as stored: %d bytes\n", statistics.topicTextBytes);
+    out.printf("  Keywords: %d, Huffman table entries: %d\n", statistics.keywordCount,
+            statistics.huffmanTableEntries);
+    out.printf("  File: %d bytes\n", statistics.fileBytes);
+  }
+}
@@ -1,6 +1,8 @@
 package uk.me.philipsearle.advisor;
 
 import java.util.List;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public interface AdvisorDocument {
 
@@ -12,10 +14,33 @@ public interface AdvisorDocument {
 
   List<HelpTopic> getTopics();
 
+  /**
+   * Returns the topics in local context ID order, as a stream that splits evenly for parallel processing. Documents
+   * that decode topics on demand decode each one as the stream reaches it, on the thread processing that part of the
+   * stream, and the topics it yields already hold their text.
+   */
+  default Stream<HelpTopic> topics() {
+    List<HelpTopic> topics = getTopics();
+    return StreamSupport.stream(new TopicSpliterator(topics::get, topics.size()), false);
+  }
+
   CaseInsensitiveHashMap<HelpTopic> getGlobalContextMap();
 
+  /**
+   * Returns a sorted index of the global context IDs, built when the document was loaded, for completing and correcting
+   * IDs as they are typed.
+   */
+  ContextIdIndex getContextIdIndex();
+
+  /**
+   * Looks up a topic that a reader asked for, counting it as an access in the {@link #getAccessTracker() tracker}. Code
+   * following links should use {@link #getGlobalContextMap()} instead, so that only real requests are counted.
+   */
   HelpTopic lookupGlobalContextId(String contextId);
 
+  /** Looks up a topic that a reader asked for, counting it as an access like {@link #lookupGlobalContextId(String)}. */
   HelpTopic lookupLocalContextId(Integer contextId);
 
+  TopicAccessTracker getAccessTracker();
+
 }
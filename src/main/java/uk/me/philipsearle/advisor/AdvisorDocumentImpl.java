@@ -19,6 +19,11 @@ public class AdvisorDocumentImpl implements AdvisorDocument {
   /** Maps global context IDs to help topic (potentially many per topic). */
   private final CaseInsensitiveHashMap<HelpTopic> globalContextMap;
 
+  private final ContextIdIndex contextIdIndex;
+
+  /** Counts topic lookups so that a warm-up profile can be recorded. */
+  private final TopicAccessTracker accessTracker;
+
   AdvisorDocumentImpl(char applicationPrefix, int maxDisplayWidth, String originalName, List<HelpTopic> topics,
           CaseInsensitiveHashMap<HelpTopic> globalContextMap) {
     this.applicationPrefix = applicationPrefix;
@@ -26,6 +31,8 @@ public class AdvisorDocumentImpl implements AdvisorDocument {
     this.originalName = originalName;
     this.topics = topics;
     this.globalContextMap = globalContextMap;
+    this.contextIdIndex = new ContextIdIndex(globalContextMap);
+    this.accessTracker = new TopicAccessTracker(topics.size());
   }
 
   @Override
@@ -53,14 +60,30 @@ public class AdvisorDocumentImpl implements AdvisorDocument {
     return globalContextMap;
   }
 
+  @Override
+  public ContextIdIndex getContextIdIndex() {
+    return contextIdIndex;
+  }
+
   @Override
   public HelpTopic lookupGlobalContextId(String contextId) {
-    return globalContextMap.get(contextId);
+    HelpTopic topic = globalContextMap.get(contextId);
+    if (topic != null) {
+      accessTracker.recordAccess((int) topic.getLocalContextId());
+    }
+    return topic;
   }
 
   @Override
   public HelpTopic lookupLocalContextId(Integer contextId) {
-    return topics.get(contextId);
+    HelpTopic topic = topics.get(contextId);
+    accessTracker.recordAccess(contextId);
+    return topic;
+  }
+
+  @Override
+  public TopicAccessTracker getAccessTracker() {
+    return accessTracker;
   }
 }
 
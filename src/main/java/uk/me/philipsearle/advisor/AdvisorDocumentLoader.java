@@ -1,17 +1,26 @@
 package uk.me.philipsearle.advisor;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.mindprod.ledatastream.LERandomAccessFile;
 
@@ -24,6 +33,30 @@ public class AdvisorDocumentLoader {
   /** Version two is the only known one. */
   private static final int ADVISOR_FILE_VERSION = 2;
 
+  /** Length of the file header, which is followed by the tables. */
+  private static final int HEADER_LENGTH = 0x46;
+
+  /** Number of topics decoded by each task when loading asynchronously. */
+  private static final int ASYNC_DECODE_BATCH = 64;
+
+  /** The largest number of bytes of adjacent topic text to read in one go. */
+  private static final int MAX_COALESCED_READ = 1024 * 1024;
+
+  /** A document's global context IDs and the local context IDs of the topics they refer to, in file order. */
+  static class ContextTable {
+    final String originalName;
+    final int topicCount;
+    final String[] contextIds;
+    final int[] topics;
+
+    ContextTable(String originalName, int topicCount, String[] contextIds, int[] topics) {
+      this.originalName = originalName;
+      this.topicCount = topicCount;
+      this.contextIds = contextIds;
+      this.topics = topics;
+    }
+  }
+
   /**
    * The character with which inline application-specific commands are prefixed.
    */
@@ -46,6 +79,9 @@ public class AdvisorDocumentLoader {
   /** The character set to use when decoding text from the file. */
   private final Charset charset;
 
+  /** Shares decoded topics between the documents loaded through it, or null. */
+  private final TopicStore topicStore;
+
   private long topicMapOffset;
 
   private long contextStringTableOffset;
@@ -67,28 +103,282 @@ public class AdvisorDocumentLoader {
   private int globalContextCount;
 
   public AdvisorDocumentLoader(Charset charset) {
+    this(charset, null);
+  }
+
+  /**
+   * Creates a loader whose documents share identical decoded topics, with each other and with any other documents
+   * loaded through the same store.
+   */
+  public AdvisorDocumentLoader(Charset charset, TopicStore topicStore) {
     this.charset = charset;
+    this.topicStore = topicStore;
   }
 
   public AdvisorDocument loadDocument(File document) throws IOException {
-    try (LERandomAccessFile file = new LERandomAccessFile(document, "r")) {
+    Object event = DocumentEvents.beginDocumentLoad();
+    try (LERandomAccessFile randomAccessFile = new LERandomAccessFile(document, "r")) {
+      DocumentInput file = DocumentInput.of(randomAccessFile);
       parseHeader(file);
 
       keywordTable = parseKeywordTable(file);
       huffmanTable = parseHuffmanTable(file);
-      List<HelpTopic> topics = parseTopics(file);
-      reverseGlobalContextMap = parseContextMap(file, topics);
-
+      TopicDecoder decoder = new TopicDecoder(charset, keywordTable, huffmanTable, topicStore);
+      List<HelpTopic> topics = parseTopics(file, decoder);
       CaseInsensitiveHashMap<HelpTopic> globalContextMap = new CaseInsensitiveHashMap<HelpTopic>();
-      for (HelpTopic topic : topics) {
-        reverseGlobalContextMap.getOrDefault(topic, Collections.emptyList())
-                .forEach(globalContextId -> globalContextMap.put(globalContextId, topic));
-      }
+      populateGlobalContextMap(file, topics, globalContextMap);
+      DocumentEvents.endDocumentLoad(event, document, "full", topics.size());
       return new AdvisorDocumentImpl(applicationPrefix, maxDisplayWidth, originalName, topics, globalContextMap);
     }
   }
 
-  private void parseHeader(LERandomAccessFile file) throws IOException {
+  /**
+   * Loads and decodes a document without blocking the calling thread. The file is read with an
+   * {@link AsynchronousFileChannel}: the header is parsed as soon as it arrives, then the tables and the topic text are
+   * read concurrently, and topics are decoded in batches on the given executor. Cancelling the returned future closes
+   * the file and abandons any reads or decoding still outstanding.
+   * <p>
+   * Unlike the blocking methods, any number of asynchronous loads may run at once through the same loader.
+   */
+  public CompletableFuture<AdvisorDocument> loadDocumentAsync(File document, Executor executor) {
+    Object event = DocumentEvents.beginDocumentLoad();
+    CompletableFuture<AdvisorDocument> result = new CompletableFuture<>();
+    AsynchronousFileChannel channel;
+    try {
+      channel = AsynchronousFileChannel.open(document.toPath(), StandardOpenOption.READ);
+    } catch (IOException e) {
+      result.completeExceptionally(e);
+      return result;
+    }
+    // Closing the channel when the load completes for any reason also aborts reads still pending after a cancel
+    result.whenComplete((loadedDocument, failure) -> {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Nothing more can be done with the channel, and the result is already decided
+      }
+    });
+
+    // The parse methods keep their state in fields, so each load gets a loader of its own
+    AdvisorDocumentLoader loader = new AdvisorDocumentLoader(charset, topicStore);
+    readAsync(channel, 0, HEADER_LENGTH)
+            .thenApplyAsync(header -> unchecked(() -> {
+              loader.parseHeader(DocumentInput.of(header, 0));
+              return loader;
+            }), executor)
+            .thenCompose(parsedHeader -> loader.loadTablesAndTopicsAsync(channel, executor, result))
+            .whenComplete((loadedDocument, failure) -> {
+              if (failure != null) {
+                result.completeExceptionally(failure instanceof CompletionException ? failure.getCause() : failure);
+              } else {
+                DocumentEvents.endDocumentLoad(event, document, "async", loadedDocument.getTopics().size());
+                result.complete(loadedDocument);
+              }
+            });
+    return result;
+  }
+
+  private CompletableFuture<AdvisorDocument> loadTablesAndTopicsAsync(AsynchronousFileChannel channel,
+          Executor executor, CompletableFuture<AdvisorDocument> result) {
+    // The tables normally sit between the header and the topic text; if not, fall back to reading the whole file
+    boolean tablesPrecedeTopicText = topicMapOffset < topicTextOffset && contextStringTableOffset < topicTextOffset
+            && contextMapOffset < topicTextOffset && keywordTableOffset < topicTextOffset
+            && huffmanOffset < topicTextOffset;
+    long tablesOffset = tablesPrecedeTopicText ? HEADER_LENGTH : 0;
+    long topicTextRegionOffset = tablesPrecedeTopicText ? topicTextOffset : 0;
+    CompletableFuture<ByteBuffer> tables;
+    CompletableFuture<ByteBuffer> topicText;
+    if (tablesPrecedeTopicText) {
+      tables = readAsync(channel, HEADER_LENGTH, topicTextOffset - HEADER_LENGTH);
+      topicText = readAsync(channel, topicTextOffset, documentEndOffset - topicTextOffset);
+    } else {
+      tables = readAsync(channel, 0, documentEndOffset);
+      topicText = tables;
+    }
+
+    // Stages run concurrently over the same regions, so each gets its own DocumentInput and read position
+    CompletableFuture<TopicDecoder> decoder = tables.thenApplyAsync(region -> unchecked(() -> {
+      DocumentInput input = DocumentInput.of(region, tablesOffset);
+      keywordTable = parseKeywordTable(input);
+      huffmanTable = parseHuffmanTable(input);
+      return new TopicDecoder(charset, keywordTable, huffmanTable, topicStore);
+    }), executor);
+    CompletableFuture<TopicMap> topicMap = tables.thenApplyAsync(
+            region -> unchecked(() -> parseTopicMap(DocumentInput.of(region, tablesOffset))), executor);
+
+    CompletableFuture<byte[][]> compressedTopics = topicMap.thenCombine(topicText,
+            (map, region) -> unchecked(() -> readCompressedTopics(DocumentInput.of(region, topicTextRegionOffset),
+                    map)));
+
+    return decoder
+            .thenCompose(topicDecoder -> compressedTopics
+                    .thenCompose(compressed -> decodeTopicsAsync(compressed, topicDecoder, executor, result)))
+            .thenCombine(tables, (topics, region) -> unchecked(() -> {
+              CaseInsensitiveHashMap<HelpTopic> globalContextMap = new CaseInsensitiveHashMap<HelpTopic>();
+              populateGlobalContextMap(DocumentInput.of(region, tablesOffset), topics, globalContextMap);
+              return new AdvisorDocumentImpl(applicationPrefix, maxDisplayWidth, originalName, topics,
+                      globalContextMap);
+            }));
+  }
+
+  /**
+   * Decodes topics in batches on the executor. Batches stop early once the load's result has been decided, which is
+   * how a cancellation reaches decoding that has already been queued.
+   */
+  private static CompletableFuture<List<HelpTopic>> decodeTopicsAsync(byte[][] compressedTopics,
+          TopicDecoder decoder, Executor executor, CompletableFuture<AdvisorDocument> result) {
+    HelpTopic[] topics = new HelpTopic[compressedTopics.length];
+    List<CompletableFuture<Void>> batches = new ArrayList<>();
+    for (int batchStart = 0; batchStart < topics.length; batchStart += ASYNC_DECODE_BATCH) {
+      int start = batchStart;
+      int end = Math.min(batchStart + ASYNC_DECODE_BATCH, topics.length);
+      batches.add(CompletableFuture.runAsync(() -> {
+        for (int i = start; i < end && !result.isDone(); i++) {
+          topics[i] = new HelpTopic(i, decoder.decode(i, compressedTopics[i]));
+        }
+      }, executor));
+    }
+    return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0]))
+            .thenApply(decoded -> Arrays.asList(topics));
+  }
+
+  /**
+   * Reads a region of the file, issuing further reads until it is complete.
+   */
+  private static CompletableFuture<ByteBuffer> readAsync(AsynchronousFileChannel channel, long position, long length) {
+    CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      future.completeExceptionally(new BadAdvisorFileException("Invalid region length " + length + " at " + position));
+      return future;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate((int) length);
+    CompletionHandler<Integer, ByteBuffer> handler = new CompletionHandler<Integer, ByteBuffer>() {
+      @Override
+      public void completed(Integer count, ByteBuffer destination) {
+        if (count < 0) {
+          future.completeExceptionally(new EOFException("File ends before offset " + (position + length)));
+        } else if (destination.hasRemaining()) {
+          channel.read(destination, position + destination.position(), destination, this);
+        } else {
+          destination.flip();
+          future.complete(destination);
+        }
+      }
+
+      @Override
+      public void failed(Throwable failure, ByteBuffer destination) {
+        future.completeExceptionally(failure);
+      }
+    };
+    try {
+      channel.read(buffer, position, buffer, handler);
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  @FunctionalInterface
+  private interface IOSupplier<T> {
+    T get() throws IOException;
+  }
+
+  /** Runs a parse step inside a future's stage, where checked exceptions must be wrapped. */
+  private static <T> T unchecked(IOSupplier<T> step) {
+    try {
+      return step.get();
+    } catch (IOException e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  /**
+   * Opens a document without decoding any topics. Only the header, compression tables, topic map and context tables
+   * are read; topic text is read from the file and decoded when it is first accessed. The returned document reads from
+   * the file until it is closed.
+   */
+  public OnDemandAdvisorDocument openDocument(File document) throws IOException {
+    return openDocument(document, TopicCache.unbounded());
+  }
+
+  /**
+   * Opens a document without decoding any topics, keeping decoded topics in the given cache.
+   */
+  OnDemandAdvisorDocument openDocument(File document, TopicCache topicCache) throws IOException {
+    Object event = DocumentEvents.beginDocumentLoad();
+    try (LERandomAccessFile randomAccessFile = new LERandomAccessFile(document, "r")) {
+      LongAdder tableBytesRead = new LongAdder();
+      DocumentInput file = DocumentInput.counting(DocumentInput.of(randomAccessFile), tableBytesRead);
+      parseHeader(file);
+
+      keywordTable = parseKeywordTable(file);
+      huffmanTable = parseHuffmanTable(file);
+      TopicDecoder decoder = new TopicDecoder(charset, keywordTable, huffmanTable, topicStore);
+      TopicMap topicMap = parseTopicMap(file);
+
+      CaseInsensitiveHashMap<HelpTopic> globalContextMap = new CaseInsensitiveHashMap<HelpTopic>();
+      OnDemandAdvisorDocument onDemandDocument = new OnDemandAdvisorDocument(applicationPrefix, maxDisplayWidth,
+              originalName, document, topicMap, decoder, globalContextMap, topicCache);
+      populateGlobalContextMap(file, onDemandDocument.getTopics(), globalContextMap);
+      onDemandDocument.indexGlobalContextIds();
+      onDemandDocument.addBytesRead(tableBytesRead.sum());
+      DocumentEvents.endDocumentLoad(event, document, "on-demand", topicMap.getTopicCount());
+      return onDemandDocument;
+    }
+  }
+
+  /**
+   * Opens a document and decodes the hottest topics recorded in a warm-up profile before returning, leaving the rest
+   * to be decoded on demand.
+   *
+   * @param topicLimit the maximum number of topics from the profile to decode up front
+   */
+  public OnDemandAdvisorDocument openDocument(File document, WarmUpProfile profile, int topicLimit)
+          throws IOException {
+    OnDemandAdvisorDocument onDemandDocument = openDocument(document);
+    onDemandDocument.warmUp(profile, topicLimit);
+    return onDemandDocument;
+  }
+
+  /**
+   * Loads a document keeping only the compressed text of each topic in memory. Topics are decoded every time their
+   * text is accessed, so the document stays close to its on-disk size. The file is closed before returning.
+   */
+  public CompressedResidentAdvisorDocument loadCompressedDocument(File document) throws IOException {
+    Object event = DocumentEvents.beginDocumentLoad();
+    try (LERandomAccessFile randomAccessFile = new LERandomAccessFile(document, "r")) {
+      DocumentInput file = DocumentInput.of(randomAccessFile);
+      parseHeader(file);
+
+      keywordTable = parseKeywordTable(file);
+      huffmanTable = parseHuffmanTable(file);
+      TopicDecoder decoder = new TopicDecoder(charset, keywordTable, huffmanTable, topicStore);
+      TopicMap topicMap = parseTopicMap(file);
+      byte[][] compressedTopics = readCompressedTopics(file, topicMap);
+
+      CaseInsensitiveHashMap<HelpTopic> globalContextMap = new CaseInsensitiveHashMap<HelpTopic>();
+      CompressedResidentAdvisorDocument compressedDocument = new CompressedResidentAdvisorDocument(applicationPrefix,
+              maxDisplayWidth, originalName, topicMap, decoder, globalContextMap, compressedTopics);
+      populateGlobalContextMap(file, compressedDocument.getTopics(), globalContextMap);
+      compressedDocument.indexGlobalContextIds();
+      DocumentEvents.endDocumentLoad(event, document, "compressed", topicMap.getTopicCount());
+      return compressedDocument;
+    }
+  }
+
+  /**
+   * Reads only the header and the global context table of a document, without its topics or compression tables.
+   */
+  ContextTable readContextTable(File document) throws IOException {
+    try (LERandomAccessFile randomAccessFile = new LERandomAccessFile(document, "r")) {
+      DocumentInput file = DocumentInput.of(randomAccessFile);
+      parseHeader(file);
+      return parseContextTable(file);
+    }
+  }
+
+  private void parseHeader(DocumentInput file) throws IOException {
     int magic = file.readUnsignedShort();
     if (magic != ADVISOR_FILE_MAGIC) {
       throw new BadAdvisorFileException("Incorrect magic number: " + magic + ", expected " + ADVISOR_FILE_MAGIC);
@@ -136,7 +426,7 @@ public class AdvisorDocumentLoader {
     keywordTableEndoFfset = huffmanOffset == 0 ? topicTextOffset : huffmanOffset;
   }
 
-  private List<byte[]> parseKeywordTable(LERandomAccessFile file) throws IOException {
+  private List<byte[]> parseKeywordTable(DocumentInput file) throws IOException {
     if (keywordTableOffset == 0) {
       return Collections.emptyList();
     }
@@ -150,51 +440,100 @@ public class AdvisorDocumentLoader {
     return keywords;
   }
 
-  private List<HelpTopic> parseTopics(LERandomAccessFile file) throws IOException {
-    // Plus one for the EOF offset
-    long topicOffsets[] = new long[topicCount + 1];
-    topicOffsets[topicCount] = documentEndOffset;
-
+  private TopicMap parseTopicMap(DocumentInput file) throws IOException {
+    long topicOffsets[] = new long[topicCount];
     file.seek(topicMapOffset);
     for (int i = 0; i < topicCount; i++) {
       topicOffsets[i] = file.readUnsignedInt();
     }
+    return new TopicMap(topicOffsets, documentEndOffset);
+  }
 
-    List<byte[]> compressedTopics = new ArrayList<>(topicCount);
-    for (int i = 0; i < topicCount; i++) {
-      file.seek(topicOffsets[i]);
-      // The length of the compressed topic text must be calculated using the start of the next topic
-      // (for the last topic we use the EOF, which is included at the end of the topicOffsets array)
-      byte[] compressedTopicText = new byte[(int) (topicOffsets[i + 1] - topicOffsets[i])];
-      file.readFully(compressedTopicText);
-      compressedTopics.add(compressedTopicText);
-    }
+  private List<HelpTopic> parseTopics(DocumentInput file, TopicDecoder decoder) throws IOException {
+    byte[][] compressedTopics = readCompressedTopics(file, parseTopicMap(file));
 
     List<HelpTopic> topics = new ArrayList<>();
-    for (int i = 0; i < compressedTopics.size(); i++) {
-      topics.add(new HelpTopic(topicOffsets[i], extractTopicText(decompress(compressedTopics.get(i)))));
+    for (int i = 0; i < compressedTopics.length; i++) {
+      topics.add(new HelpTopic(i, decoder.decode(i, compressedTopics[i])));
     }
     return topics;
   }
 
-  private Map<HelpTopic, List<String>> parseContextMap(LERandomAccessFile file, List<HelpTopic> topics)
+  /**
+   * Reads the compressed text of every topic in ascending offset order. Runs of adjacent topics are read with a single
+   * large sequential read and then split into per-topic slices, so a cold load makes few, sequential I/O requests.
+   */
+  private byte[][] readCompressedTopics(DocumentInput file, TopicMap topicMap) throws IOException {
+    byte[][] compressedTopics = new byte[topicCount][];
+    int[] fileOrder = topicMap.getTopicsInFileOrder();
+
+    int runStart = 0;
+    while (runStart < fileOrder.length) {
+      long chunkStart = topicMap.getOffset(fileOrder[runStart]);
+      long chunkEnd = chunkStart + topicMap.getLength(fileOrder[runStart]);
+
+      // Extend the run while the next topic starts within or immediately after the chunk and the chunk stays within the
+      // size limit. The run's first topic is always read, however big it is.
+      int runEnd = runStart + 1;
+      while (runEnd < fileOrder.length) {
+        long offset = topicMap.getOffset(fileOrder[runEnd]);
+        long end = offset + topicMap.getLength(fileOrder[runEnd]);
+        if (offset > chunkEnd || end - chunkStart > MAX_COALESCED_READ) {
+          break;
+        }
+        chunkEnd = Math.max(chunkEnd, end);
+        runEnd++;
+      }
+
+      byte[] chunk = new byte[(int) (chunkEnd - chunkStart)];
+      file.seek(chunkStart);
+      file.readFully(chunk);
+      for (int i = runStart; i < runEnd; i++) {
+        int topic = fileOrder[i];
+        int sliceStart = (int) (topicMap.getOffset(topic) - chunkStart);
+        compressedTopics[topic] = Arrays.copyOfRange(chunk, sliceStart, sliceStart + topicMap.getLength(topic));
+      }
+      runStart = runEnd;
+    }
+    return compressedTopics;
+  }
+
+  private void populateGlobalContextMap(DocumentInput file, List<HelpTopic> topics,
+          CaseInsensitiveHashMap<HelpTopic> globalContextMap) throws IOException {
+    reverseGlobalContextMap = parseContextMap(file, topics);
+    for (HelpTopic topic : topics) {
+      reverseGlobalContextMap.getOrDefault(topic, Collections.emptyList())
+              .forEach(globalContextId -> globalContextMap.put(globalContextId, topic));
+    }
+  }
+
+  private Map<HelpTopic, List<String>> parseContextMap(DocumentInput file, List<HelpTopic> topics)
           throws IOException {
+    ContextTable contextTable = parseContextTable(file);
+    Map<HelpTopic, List<String>> reverseContextMap = new HashMap<>();
+    for (int i = 0; i < globalContextCount; i++) {
+      reverseContextMap.computeIfAbsent(topics.get(contextTable.topics[i]), v -> new ArrayList<>())
+              .add(contextTable.contextIds[i]);
+    }
+    return reverseContextMap;
+  }
+
+  private ContextTable parseContextTable(DocumentInput file) throws IOException {
     int[] topicIndexes = new int[globalContextCount];
     file.seek(contextMapOffset);
     for (int i = 0; i < globalContextCount; i++) {
       topicIndexes[i] = file.readUnsignedShort();
     }
 
-    Map<HelpTopic, List<String>> reverseContextMap = new HashMap<>();
+    String[] contextIds = new String[globalContextCount];
     file.seek(contextStringTableOffset);
     for (int i = 0; i < globalContextCount; i++) {
-      String context = readNulTerminatedString(file);
-      reverseContextMap.computeIfAbsent(topics.get(topicIndexes[i]), v -> new ArrayList<>()).add(context);
+      contextIds[i] = readNulTerminatedString(file);
     }
-    return reverseContextMap;
+    return new ContextTable(originalName, topicCount, contextIds, topicIndexes);
   }
 
-  private List<Integer> parseHuffmanTable(LERandomAccessFile file) throws IOException {
+  private List<Integer> parseHuffmanTable(DocumentInput file) throws IOException {
     if (huffmanOffset == 0) {
       return null;
     }
@@ -211,7 +550,7 @@ public class AdvisorDocumentLoader {
   }
 
   // TODO: This should decode characters using the correct Charset
-  private String readNulTerminatedString(LERandomAccessFile file) throws IOException {
+  private String readNulTerminatedString(DocumentInput file) throws IOException {
     CharsetDecoder decoder = charset.newDecoder();
     ByteBuffer in = ByteBuffer.allocate(1);
     CharBuffer out = CharBuffer.allocate(1);
@@ -236,7 +575,7 @@ public class AdvisorDocumentLoader {
     }
   }
 
-  private byte[] readCountedString(LERandomAccessFile file, int length) throws IOException {
+  private byte[] readCountedString(DocumentInput file, int length) throws IOException {
     byte[] buffer = new byte[length];
     for (int i = 0; i < length; i++) {
       buffer[i] = (byte) file.readUnsignedByte();
@@ -244,108 +583,17 @@ public class AdvisorDocumentLoader {
     return buffer;
   }
 
-  private void skipUnknownShort(LERandomAccessFile file, String name) throws IOException, IllegalStateException {
+  private void skipUnknownShort(DocumentInput file, String name) throws IOException, IllegalStateException {
     int unknown = file.readUnsignedShort();
     if (unknown != 0) {
       throw new IllegalStateException("Not yet implemented: " + name);
     }
   }
 
-  private void skipUnknownInt(LERandomAccessFile file, String name) throws IOException, IllegalStateException {
+  private void skipUnknownInt(DocumentInput file, String name) throws IOException, IllegalStateException {
     long unknown = file.readUnsignedInt();
     if (unknown != 0) {
       throw new IllegalStateException("Not yet implemented: " + name);
     }
   }
-
-  private byte[] decompress(byte[] compressedTopic) {
-    int charCount = (compressedTopic[0] & 0xff) | ((compressedTopic[1] & 0xff) << 8);
-    byte[] buffer = new byte[charCount];
-    int bufferIndex = 0;
-
-    CompresedTopicIterator it = new CompresedTopicIterator(huffmanTable, compressedTopic, 2);
-    while (bufferIndex < charCount) {
-      int c = it.nextByte();
-
-      if (c < 0x10 || c > 0x1a) {
-        buffer[bufferIndex++] = (byte) c;
-        continue;
-      }
-
-      int command = c - 0x10;
-      int parameter = it.nextByte();
-      switch (command) {
-        case 0:
-        case 1:
-        case 2:
-        case 3:
-        case 4:
-        case 5:
-        case 6:
-        case 7: {
-          // keyword from table
-          int tableIndex = command & 0x03;
-          byte[] keyword = keywordTable.get(parameter + 256 * tableIndex);
-          for (byte element : keyword) {
-            buffer[bufferIndex++] = element;
-          }
-
-          if (command >= 4) {
-            // keyword from table (with space)
-            buffer[bufferIndex++] = (byte) ' ';
-          }
-          break;
-        }
-        case 8: {
-          // RLE (spaces)
-          for (int count = 0; count < parameter; count++) {
-            buffer[bufferIndex++] = (byte) ' ';
-          }
-          break;
-        }
-        case 9: {
-          // RLE (arbitrary char)
-          int repeatChar = parameter;
-          parameter = it.nextByte();
-          for (int count = 0; count < parameter; count++) {
-            buffer[bufferIndex++] = (byte) repeatChar;
-          }
-          break;
-        }
-        case 10: {
-          // Output literal
-          buffer[bufferIndex++] = (byte) parameter;
-          break;
-        }
-        default:
-          throw new IllegalStateException("Unsupported compression command: " + command);
-      }
-    }
-
-    return buffer;
-  }
-
-  private List<HelpTopicLine> extractTopicText(byte[] decompressedTopic) {
-    List<HelpTopicLine> topicText = new ArrayList<>();
-
-    int index = 0;
-    while (index < decompressedTopic.length) {
-      int lineLength = decompressedTopic[index++] - 1;
-      StringBuilder text = new StringBuilder();
-
-      ByteBuffer textSpan = ByteBuffer.wrap(decompressedTopic, index, lineLength);
-      text.append(charset.decode(textSpan));
-      index += lineLength;
-
-      int attributesLength = (decompressedTopic[index++] & 0xff) - 1;
-      byte[] attributes = new byte[attributesLength];
-      for (int attributesIndex = 0; attributesIndex < attributesLength; attributesIndex++) {
-        attributes[attributesIndex] = decompressedTopic[index++];
-      }
-
-      topicText.add(new HelpTopicLine(text.toString(), attributes));
-    }
-
-    return topicText;
-  }
 }
@@ -0,0 +1,206 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * Writes a document as an Advisor version 2 file that {@link AdvisorDocumentLoader} can read back. The file follows
+ * the layout described in the README: the header, topic map, context strings, context map, keyword table and Huffman
+ * table, followed by the text of each topic in local context ID order.
+ */
+class AdvisorDocumentWriter {
+  private static final int HEADER_LENGTH = 0x46;
+
+  /** Sizes of the parts of a written document. */
+  static class Statistics {
+    int topicCount;
+    long decompressedBytes;
+    long encodedBytes;
+    long topicTextBytes;
+    long fileBytes;
+    int keywordCount;
+    int huffmanTableEntries;
+  }
+
+  private final Charset charset;
+  private final List<byte[]> keywordTable;
+  private final TopicEncoder encoder;
+  private final boolean huffmanCoding;
+
+  /**
+   * @param encoder applies the phrase and run-length encoding, and supplies the keyword table to write
+   */
+  AdvisorDocumentWriter(TopicEncoder encoder, boolean huffmanCoding) {
+    this.charset = encoder.getCharset();
+    this.keywordTable = encoder.getKeywordTable();
+    this.encoder = encoder;
+    this.huffmanCoding = huffmanCoding;
+  }
+
+  Statistics write(AdvisorDocument document, File file) throws IOException {
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+      return write(document, out);
+    }
+  }
+
+  /**
+   * Writes a document, encoding its topics in parallel. Topics are read once each, possibly from several threads.
+   */
+  Statistics write(AdvisorDocument document, OutputStream out) throws IOException {
+    List<HelpTopic> topics = document.getTopics();
+    if (topics.size() > 0xffff) {
+      throw new IllegalArgumentException("A document holds at most 65535 topics, not " + topics.size());
+    }
+
+    int[] decompressedLengths = new int[topics.size()];
+    byte[][] encodedTopics = new byte[topics.size()][];
+    IntStream.range(0, topics.size()).parallel().forEach(topic -> {
+      List<HelpTopicLine> lines = topics.get(topic).getText();
+      decompressedLengths[topic] = encoder.serialize(lines).length;
+      encodedTopics[topic] = encoder.encode(lines);
+    });
+    HuffmanCode huffmanCode = huffmanCoding ? buildHuffmanCode(encodedTopics) : null;
+    byte[][] compressedTopics = new byte[topics.size()][];
+    IntStream.range(0, topics.size()).parallel().forEach(topic -> compressedTopics[topic] =
+            compressTopic(decompressedLengths[topic], encodedTopics[topic], huffmanCode));
+
+    // Sorted so that the same document is always written the same way
+    Map<String, Integer> globalContextIds = new TreeMap<>();
+    document.getGlobalContextMap().forEach((globalContextId, topic) -> globalContextIds.put(globalContextId,
+            (int) topic.getLocalContextId()));
+    ByteArrayOutputStream contextStrings = new ByteArrayOutputStream();
+    for (String globalContextId : globalContextIds.keySet()) {
+      byte[] bytes = globalContextId.getBytes(charset);
+      contextStrings.write(bytes, 0, bytes.length);
+      contextStrings.write(0);
+    }
+
+    ByteArrayOutputStream keywords = new ByteArrayOutputStream();
+    for (byte[] keyword : keywordTable) {
+      keywords.write(keyword.length);
+      keywords.write(keyword, 0, keyword.length);
+    }
+
+    List<Integer> huffmanTable = huffmanCode == null ? null : huffmanCode.getTable();
+
+    long topicMapOffset = HEADER_LENGTH;
+    long contextStringTableOffset = topicMapOffset + 4L * topics.size();
+    long contextMapOffset = contextStringTableOffset + contextStrings.size();
+    long keywordTableOffset = contextMapOffset + 2L * globalContextIds.size();
+    long huffmanOffset = keywordTableOffset + keywords.size();
+    long topicTextOffset = huffmanOffset + (huffmanTable == null ? 0 : 2L * (huffmanTable.size() + 1));
+    long documentEndOffset = topicTextOffset;
+    for (byte[] compressedTopic : compressedTopics) {
+      documentEndOffset += compressedTopic.length;
+    }
+    if (documentEndOffset > 0xffffffffL) {
+      throw new IllegalArgumentException("Document is too large for 32-bit offsets");
+    }
+
+    ByteBuffer header = littleEndian(HEADER_LENGTH);
+    header.putShort((short) 0x4e4c);
+    header.putShort((short) 2);
+    header.putShort((short) 0);
+    header.put((byte) document.getApplicationPrefix());
+    header.put((byte) 0);
+    header.putShort((short) topics.size());
+    header.putShort((short) globalContextIds.size());
+    header.putShort((short) document.getMaxDisplayWidth());
+    header.putShort((short) 0);
+    header.put(Arrays.copyOf(document.getOriginalName().getBytes(charset), 12));
+    header.putShort((short) 0);
+    header.putShort((short) 0);
+    header.putShort((short) 0);
+    header.putInt((int) topicMapOffset);
+    header.putInt((int) contextStringTableOffset);
+    header.putInt((int) contextMapOffset);
+    header.putInt(keywordTable.isEmpty() ? 0 : (int) keywordTableOffset);
+    header.putInt(huffmanTable == null ? 0 : (int) huffmanOffset);
+    header.putInt((int) topicTextOffset);
+    header.putInt(0);
+    header.putInt(0);
+    header.putInt((int) documentEndOffset);
+    out.write(header.array());
+
+    ByteBuffer topicMap = littleEndian(4 * topics.size());
+    long offset = topicTextOffset;
+    for (byte[] compressedTopic : compressedTopics) {
+      topicMap.putInt((int) offset);
+      offset += compressedTopic.length;
+    }
+    out.write(topicMap.array());
+
+    contextStrings.writeTo(out);
+    ByteBuffer contextMap = littleEndian(2 * globalContextIds.size());
+    for (int topic : globalContextIds.values()) {
+      contextMap.putShort((short) topic);
+    }
+    out.write(contextMap.array());
+
+    keywords.writeTo(out);
+    if (huffmanTable != null) {
+      ByteBuffer table = littleEndian(2 * (huffmanTable.size() + 1));
+      for (int entry : huffmanTable) {
+        table.putShort((short) entry);
+      }
+      out.write(table.array());
+    }
+
+    for (byte[] compressedTopic : compressedTopics) {
+      out.write(compressedTopic);
+    }
+
+    Statistics statistics = new Statistics();
+    statistics.topicCount = topics.size();
+    statistics.decompressedBytes = Arrays.stream(decompressedLengths).asLongStream().sum();
+    statistics.encodedBytes = Arrays.stream(encodedTopics).mapToLong(encodedTopic -> encodedTopic.length).sum();
+    statistics.topicTextBytes = documentEndOffset - topicTextOffset;
+    statistics.fileBytes = documentEndOffset;
+    statistics.keywordCount = keywordTable.size();
+    statistics.huffmanTableEntries = huffmanTable == null ? 0 : huffmanTable.size();
+    return statistics;
+  }
+
+  static HuffmanCode buildHuffmanCode(byte[][] encodedTopics) {
+    long[] frequencies = new long[256];
+    for (byte[] encodedTopic : encodedTopics) {
+      HuffmanCode.countSymbols(encodedTopic, frequencies);
+    }
+    if (Arrays.stream(frequencies).allMatch(frequency -> frequency == 0)) {
+      // Every topic is empty, but the file still needs a valid table
+      frequencies[0] = 1;
+    }
+    return new HuffmanCode(frequencies);
+  }
+
+  /**
+   * Prefixes an encoded topic with its decompressed length, Huffman coding it if a code is given.
+   */
+  static byte[] compressTopic(int decompressedLength, byte[] encodedTopic, HuffmanCode huffmanCode) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(encodedTopic.length + 2);
+    out.write(decompressedLength & 0xff);
+    out.write(decompressedLength >> 8);
+    if (huffmanCode != null) {
+      huffmanCode.encode(encodedTopic, out);
+    } else {
+      out.write(encodedTopic, 0, encodedTopic.length);
+    }
+    return out.toByteArray();
+  }
+
+  private static ByteBuffer littleEndian(int length) {
+    return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
@@ -0,0 +1,139 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds every occurrence of any of a set of byte strings in one pass over the text, however many strings there are.
+ * The Aho-Corasick automaton is built with a full transition table, so each byte of text costs one array lookup, and
+ * case folding is built into the table rather than applied to the text. Instances are immutable once constructed and
+ * can be shared by threads.
+ */
+class AhoCorasickMatcher {
+
+  /** Receives matches as they are found. */
+  interface MatchListener {
+    /**
+     * @param pattern the index of the pattern that matched
+     * @param start the index of the first byte of the match
+     * @param end the index after the last byte of the match
+     * @return whether to carry on searching
+     */
+    boolean onMatch(int pattern, int start, int end);
+  }
+
+  /** The next state for each state and byte, indexed by state * 256 + byte. */
+  private final int[] transitions;
+
+  /** The pattern ending at each state, or -1. */
+  private final int[] patternAt;
+
+  /** The nearest state along the failure links that ends a pattern, or -1. */
+  private final int[] outputLinks;
+
+  private final int[] patternLengths;
+
+  /**
+   * @param patterns the byte strings to find, none of them empty
+   * @param folding maps each byte to the byte it should match as, e.g. its lower-case form, or null to match exactly
+   */
+  AhoCorasickMatcher(List<byte[]> patterns, byte[] folding) {
+    int maxStates = 1;
+    for (byte[] pattern : patterns) {
+      if (pattern.length == 0) {
+        throw new IllegalArgumentException("Can't search for an empty string");
+      }
+      maxStates += pattern.length;
+    }
+
+    // Build the trie of the folded patterns, with -1 for missing edges
+    int[] trie = new int[maxStates * 256];
+    Arrays.fill(trie, -1);
+    int[] pattern = new int[maxStates];
+    Arrays.fill(pattern, -1);
+    patternLengths = new int[patterns.size()];
+    int stateCount = 1;
+    for (int p = 0; p < patterns.size(); p++) {
+      int state = 0;
+      for (byte b : patterns.get(p)) {
+        int index = (state << 8) | fold(folding, b);
+        if (trie[index] < 0) {
+          trie[index] = stateCount++;
+        }
+        state = trie[index];
+      }
+      if (pattern[state] < 0) {
+        pattern[state] = p;
+      }
+      patternLengths[p] = patterns.get(p).length;
+    }
+
+    // Breadth first, each state's missing edges are those of its failure state, which is shallower so already complete
+    transitions = new int[stateCount * 256];
+    patternAt = Arrays.copyOf(pattern, stateCount);
+    outputLinks = new int[stateCount];
+    int[] failures = new int[stateCount];
+    int[] queue = new int[stateCount];
+    int head = 0;
+    int tail = 0;
+    outputLinks[0] = -1;
+    for (int b = 0; b < 256; b++) {
+      int child = trie[b];
+      if (child < 0) {
+        transitions[b] = 0;
+      } else {
+        transitions[b] = child;
+        failures[child] = 0;
+        outputLinks[child] = -1;
+        queue[tail++] = child;
+      }
+    }
+    while (head < tail) {
+      int state = queue[head++];
+      for (int b = 0; b < 256; b++) {
+        int child = trie[(state << 8) | b];
+        int fallback = transitions[(failures[state] << 8) | b];
+        if (child < 0) {
+          transitions[(state << 8) | b] = fallback;
+        } else {
+          transitions[(state << 8) | b] = child;
+          failures[child] = fallback;
+          outputLinks[child] = patternAt[fallback] >= 0 ? fallback : outputLinks[fallback];
+          queue[tail++] = child;
+        }
+      }
+    }
+
+    // Every byte takes the transitions of the byte it folds to
+    if (folding != null) {
+      for (int state = 0; state < stateCount; state++) {
+        for (int b = 0; b < 256; b++) {
+          transitions[(state << 8) | b] = transitions[(state << 8) | (folding[b] & 0xff)];
+        }
+      }
+    }
+  }
+
+  private static int fold(byte[] folding, byte b) {
+    return folding == null ? b & 0xff : folding[b & 0xff] & 0xff;
+  }
+
+  /**
+   * Reports every match, including overlapping ones, that ends within a span of the text.
+   *
+   * @return false if the listener asked to stop
+   */
+  boolean find(byte[] text, int start, int end, MatchListener listener) {
+    int state = 0;
+    for (int i = start; i < end; i++) {
+      state = transitions[(state << 8) | (text[i] & 0xff)];
+      for (int s = patternAt[state] >= 0 ? state : outputLinks[state]; s >= 0; s = outputLinks[s]) {
+        int p = patternAt[s];
+        if (!listener.onMatch(p, i + 1 - patternLengths[p], i + 1)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,90 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes a topic for a terminal, using ANSI escape sequences for styles and colouring links: cyan for links that lead
+ * somewhere and red for links to missing topics.
+ */
+class AnsiTopicRenderer implements TopicRenderer {
+  static final TopicRenderer.Factory FACTORY = new TopicRenderer.Factory() {
+    @Override
+    public String getName() {
+      return "ansi";
+    }
+
+    @Override
+    public String getFileExtension() {
+      return "ANS";
+    }
+
+    @Override
+    public TopicRenderer newRenderer(Writer out) {
+      return new AnsiTopicRenderer(out);
+    }
+  };
+
+  private static final String RESET = "\u001b[0m";
+  private static final String LINK_COLOUR = "\u001b[36m";
+  private static final String MISSING_LINK_COLOUR = "\u001b[31m";
+
+  private final Writer out;
+  private int style;
+  private String linkColour;
+
+  AnsiTopicRenderer(Writer out) {
+    this.out = out;
+  }
+
+  @Override
+  public void text(String text, int start, int end) throws IOException {
+    out.write(text, start, end - start);
+  }
+
+  @Override
+  public void startStyle(int style) throws IOException {
+    this.style = style;
+    writeState();
+  }
+
+  @Override
+  public void endStyle() throws IOException {
+    style = 0;
+    out.write(RESET);
+  }
+
+  @Override
+  public void startLink(int localContextId, String globalContextId, String externalTarget) throws IOException {
+    linkColour = localContextId >= 0 || externalTarget != null ? LINK_COLOUR : MISSING_LINK_COLOUR;
+    writeState();
+  }
+
+  @Override
+  public void endLink() throws IOException {
+    linkColour = null;
+    out.write(RESET);
+    writeState();
+  }
+
+  /** Writes the escape sequences for the current style and link, which a reset clears together. */
+  private void writeState() throws IOException {
+    if ((style & BOLD) != 0) {
+      out.write("\u001b[1m");
+    }
+    if ((style & ITALIC) != 0) {
+      out.write("\u001b[3m");
+    }
+    if ((style & UNDERLINE) != 0) {
+      out.write("\u001b[4m");
+    }
+    if (linkColour != null) {
+      out.write(linkColour);
+    }
+  }
+
+  @Override
+  public void endLine() throws IOException {
+    out.write('\n');
+  }
+}
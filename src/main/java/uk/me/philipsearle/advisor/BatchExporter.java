@@ -0,0 +1,184 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Converts every .HLP file under a directory tree in one JVM. Documents are loaded and their topics exported on a shared
+ * work-stealing pool, with a limit on how many documents are in memory at once. A failure only affects its own file.
+ * Links to global context IDs defined in other files of the tree become relative links to those files' exported topics.
+ * <p>
+ * On Java 21 and later the pool can be replaced by virtual threads: one for each document and one for each topic, so
+ * that threads blocked on file I/O don't hold up the rest.
+ */
+class BatchExporter {
+  private final Charset charset;
+  private final boolean virtualThreads;
+  private final ExecutorService pool;
+
+  /** Limits the number of documents loaded or being exported at once. */
+  private final Semaphore documentsInFlight;
+
+  private final LongAdder topicCount = new LongAdder();
+  private final LongAdder inputBytes = new LongAdder();
+  private final Map<Path, String> failures = new TreeMap<>();
+
+  BatchExporter(Charset charset, int threads, int maxDocumentsInFlight) {
+    this(charset, threads, maxDocumentsInFlight, false);
+  }
+
+  /**
+   * @param virtualThreads whether to start a virtual thread per document and per topic instead of using a pool of
+   *          {@code threads} platform threads, which needs {@link VirtualThreads#isAvailable()}
+   */
+  BatchExporter(Charset charset, int threads, int maxDocumentsInFlight, boolean virtualThreads) {
+    this.charset = charset;
+    this.virtualThreads = virtualThreads;
+    this.pool = virtualThreads ? VirtualThreads.newThreadPerTaskExecutor("batch-export") : new ForkJoinPool(threads);
+    this.documentsInFlight = new Semaphore(maxDocumentsInFlight);
+  }
+
+  static List<Path> findDocuments(Path inputDirectory) throws IOException {
+    try (Stream<Path> paths = Files.walk(inputDirectory)) {
+      return paths.filter(Files::isRegularFile)
+              .filter(path -> path.getFileName().toString().toUpperCase(Locale.UK).endsWith(".HLP"))
+              .sorted()
+              .collect(Collectors.toList());
+    }
+  }
+
+  /** Returns the directory named after a document, at the same place under the output tree as it is in the input. */
+  static Path getOutputDirectory(Path inputDirectory, Path document, Path outputDirectory) {
+    Path relativePath = inputDirectory.relativize(document);
+    String name = relativePath.getFileName().toString();
+    return outputDirectory.resolve(relativePath).resolveSibling(name.substring(0, name.length() - ".HLP".length()));
+  }
+
+  /**
+   * Exports each document to a directory named after it, mirroring its position under the input directory.
+   *
+   * @return whether every document was exported successfully
+   */
+  boolean export(Path inputDirectory, Path outputDirectory, PrintStream out) throws IOException, InterruptedException {
+    List<Path> documents = findDocuments(inputDirectory);
+    long start = System.nanoTime();
+
+    // Links between files are resolved through an index of every file's global context IDs
+    GlobalContextIndex contextIndex = new GlobalContextIndex(charset);
+    Map<File, IOException> unreadable = contextIndex.add(documents.stream().map(Path::toFile)
+            .collect(Collectors.toList()));
+    out.printf("Indexed %d global context IDs from %d files\n", contextIndex.size(),
+            contextIndex.getDocumentCount());
+
+    for (Path document : documents) {
+      Path relativePath = inputDirectory.relativize(document);
+      IOException indexFailure = unreadable.get(document.toFile());
+      if (indexFailure != null) {
+        recordFailure(relativePath, indexFailure);
+        out.println("Failed to export " + relativePath + ": " + indexFailure);
+        continue;
+      }
+      Path documentOutputDirectory = getOutputDirectory(inputDirectory, document, outputDirectory);
+
+      // Block here rather than in the pool, so that waiting never ties up a worker thread
+      documentsInFlight.acquire();
+      pool.execute(() -> {
+        try {
+          exportDocument(document.toFile(), documentOutputDirectory.toFile(), globalContextId -> {
+            GlobalContextIndex.Target target = contextIndex.resolve(globalContextId);
+            return target == null ? null : getLink(documentOutputDirectory,
+                    getOutputDirectory(inputDirectory, target.document.toPath(), outputDirectory), target,
+                    globalContextId);
+          });
+          out.println("Exported " + relativePath);
+        } catch (Exception e) {
+          recordFailure(relativePath, e);
+          out.println("Failed to export " + relativePath + ": " + e);
+        } finally {
+          documentsInFlight.release();
+        }
+      });
+    }
+
+    pool.shutdown();
+    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    int succeeded = documents.size() - failures.size();
+    out.printf("\nFiles                : %d exported, %d failed\n", succeeded, failures.size());
+    out.printf("Topics               : %d\n", topicCount.sum());
+    out.printf("Input                : %.2f MB\n", inputBytes.sum() / 1e6);
+    out.printf("Elapsed              : %.2f s\n", seconds);
+    out.printf("Throughput           : %.1f files/s, %.0f topics/s, %.2f MB/s\n", succeeded / seconds,
+            topicCount.sum() / seconds, inputBytes.sum() / 1e6 / seconds);
+    for (Map.Entry<Path, String> failure : failures.entrySet()) {
+      out.printf("FAILED %s: %s\n", failure.getKey(), failure.getValue());
+    }
+    return failures.isEmpty();
+  }
+
+  /** Returns a relative link from one document's exported topics to a topic exported from another document. */
+  private static String getLink(Path fromDirectory, Path toDirectory, GlobalContextIndex.Target target,
+          String globalContextId) {
+    String path = fromDirectory.relativize(toDirectory).toString().replace(File.separatorChar, '/');
+    try {
+      return new URI(null, null, path + "/TOPIC_" + target.localContextId + ".HTML", globalContextId).toString();
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException("Bad link to " + globalContextId, e);
+    }
+  }
+
+  private void exportDocument(File inputFile, File outputDirectory, Function<String, String> externalLinks)
+          throws IOException, InterruptedException {
+    if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+      throw new IOException("Could not create " + outputDirectory);
+    }
+
+    AdvisorDocument document = new AdvisorDocumentLoader(charset).loadDocument(inputFile);
+    if (virtualThreads) {
+      HtmlTopicExtractor.exportDocumentOnVirtualThreads(document, outputDirectory, TopicRenderers.html(),
+              externalLinks);
+    } else {
+      // A parallel stream started from a pool thread runs in that pool, so topics share the workers with other
+      // documents
+      HtmlTopicExtractor.exportDocument(document, outputDirectory, externalLinks);
+    }
+
+    topicCount.add(document.getTopics().size());
+    inputBytes.add(inputFile.length());
+  }
+
+  long getTopicCount() {
+    return topicCount.sum();
+  }
+
+  long getInputBytes() {
+    return inputBytes.sum();
+  }
+
+  synchronized int getFailureCount() {
+    return failures.size();
+  }
+
+  private synchronized void recordFailure(Path document, Throwable failure) {
+    failures.put(document, failure.toString());
+  }
+}
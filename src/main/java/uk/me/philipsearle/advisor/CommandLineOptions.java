@@ -0,0 +1,75 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal command line parser. Arguments starting with {@code --} are options: those named as value options take the
+ * following argument as their value, the rest are boolean flags. Everything else is a positional argument.
+ */
+class CommandLineOptions {
+  private final List<String> positional = new ArrayList<>();
+  private final Set<String> flags = new HashSet<>();
+  private final Map<String, String> values = new HashMap<>();
+
+  CommandLineOptions(String[] args, String... valueOptions) {
+    Set<String> valueOptionNames = new HashSet<>(Arrays.asList(valueOptions));
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (!arg.startsWith("--")) {
+        positional.add(arg);
+      } else if (!valueOptionNames.contains(arg)) {
+        flags.add(arg);
+      } else if (i + 1 < args.length) {
+        values.put(arg, args[++i]);
+      } else {
+        throw new IllegalArgumentException("Missing value for option " + arg);
+      }
+    }
+  }
+
+  List<String> getPositional() {
+    return positional;
+  }
+
+  boolean hasFlag(String name) {
+    return flags.contains(name);
+  }
+
+  boolean hasValue(String name) {
+    return values.containsKey(name);
+  }
+
+  String getValue(String name) {
+    return values.get(name);
+  }
+
+  int getInt(String name, int defaultValue) {
+    String value = values.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Option " + name + " expects a number, not " + value, e);
+    }
+  }
+
+  double getDouble(String name, double defaultValue) {
+    String value = values.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Option " + name + " expects a number, not " + value, e);
+    }
+  }
+}
@@ -24,7 +24,8 @@ class CompresedTopicIterator {
 
   public int nextByte() {
     if (huffmanTable == null || huffmanTable.isEmpty()) {
-      return bitstream[byteOffset++];
+      // The offset starts one byte early, as it does for the bitstream
+      return bitstream[++byteOffset] & 0xff;
     }
 
     int huffmanIndex = 0;
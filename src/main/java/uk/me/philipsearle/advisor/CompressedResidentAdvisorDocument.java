@@ -0,0 +1,46 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.List;
+
+/**
+ * A document that keeps each topic's compressed text in memory and decodes it every time it is accessed. A whole
+ * library can stay resident at roughly its on-disk size, at the cost of decoding on each access. Decompression goes
+ * through a per-thread scratch buffer, so the only allocations per access are the decoded lines themselves.
+ */
+public class CompressedResidentAdvisorDocument extends LazyAdvisorDocument {
+  private static final ThreadLocal<byte[]> scratchBuffers =
+          ThreadLocal.withInitial(() -> new byte[TopicDecoder.SCRATCH_LENGTH]);
+
+  /** Compressed topic text, indexed by local context ID. */
+  private final byte[][] compressedTopics;
+
+  CompressedResidentAdvisorDocument(char applicationPrefix, int maxDisplayWidth, String originalName,
+          TopicMap topicMap, TopicDecoder decoder, CaseInsensitiveHashMap<HelpTopic> globalContextMap,
+          byte[][] compressedTopics) {
+    super(applicationPrefix, maxDisplayWidth, originalName, topicMap, decoder, globalContextMap);
+    this.compressedTopics = compressedTopics;
+  }
+
+  /** Returns the number of bytes of compressed topic text held in memory. */
+  public long getResidentBytes() {
+    long residentBytes = 0;
+    for (byte[] compressedTopic : compressedTopics) {
+      residentBytes += compressedTopic.length;
+    }
+    return residentBytes;
+  }
+
+  byte[] getCompressedTopic(int topic) {
+    return compressedTopics[topic];
+  }
+
+  /** Returns the length of a topic's text once decompressed, without decompressing it. */
+  int getDecompressedLength(int topic) {
+    return TopicDecoder.getDecompressedLength(compressedTopics[topic]);
+  }
+
+  @Override
+  List<HelpTopicLine> getTopicText(int topic) {
+    return decoder.decode(topic, compressedTopics[topic], scratchBuffers.get());
+  }
+}
@@ -0,0 +1,217 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A sorted index of a document's global context IDs, for completing a partly typed ID and for suggesting IDs close to
+ * a mistyped one. IDs are lower-cased, as they are in {@link CaseInsensitiveHashMap}, and held in sorted order as
+ * characters in one array, so the index has no object per ID and is built once when the document is loaded.
+ * <p>
+ * Completions are found by binary search, so take time logarithmic in the number of IDs plus the number returned.
+ * Suggestions walk the sorted IDs as if they were a trie: IDs sharing a prefix share the edit distance computed for it,
+ * and once a prefix is too far from the mistyped ID every ID starting with it is skipped.
+ */
+public class ContextIdIndex {
+
+  /** A global context ID found by the index. */
+  public static class Match {
+    /** The lower-cased ID. */
+    public final String contextId;
+    public final int localContextId;
+
+    /** The edit distance from the mistyped ID, or 0 for a completion. */
+    public final int distance;
+
+    Match(String contextId, int localContextId, int distance) {
+      this.contextId = contextId;
+      this.localContextId = localContextId;
+      this.distance = distance;
+    }
+  }
+
+  /** Lower-cased IDs in sorted order, one after the other; ID i runs from offsets[i] to offsets[i + 1]. */
+  private final char[] contextIdChars;
+  private final int[] contextIdOffsets;
+  private final int[] topics;
+  private final int maxLength;
+
+  ContextIdIndex(CaseInsensitiveHashMap<HelpTopic> globalContextMap) {
+    // The map's keys are already lower-cased
+    List<String> contextIds = new ArrayList<>(globalContextMap.size());
+    globalContextMap.forEach((contextId, topic) -> contextIds.add(contextId));
+    contextIds.sort(Comparator.naturalOrder());
+
+    int charCount = 0;
+    int longest = 0;
+    for (String contextId : contextIds) {
+      charCount += contextId.length();
+      longest = Math.max(longest, contextId.length());
+    }
+    contextIdChars = new char[charCount];
+    contextIdOffsets = new int[contextIds.size() + 1];
+    topics = new int[contextIds.size()];
+    maxLength = longest;
+    for (int i = 0; i < contextIds.size(); i++) {
+      String contextId = contextIds.get(i);
+      contextId.getChars(0, contextId.length(), contextIdChars, contextIdOffsets[i]);
+      contextIdOffsets[i + 1] = contextIdOffsets[i] + contextId.length();
+      topics[i] = (int) globalContextMap.get(contextId).getLocalContextId();
+    }
+  }
+
+  public int size() {
+    return topics.length;
+  }
+
+  /**
+   * Returns up to {@code limit} IDs starting with a prefix, in alphabetical order, so an exact match comes first.
+   */
+  public List<Match> complete(String prefix, int limit) {
+    String lowerCasePrefix = prefix.toLowerCase(Locale.UK);
+    int first = lowerBound(lowerCasePrefix);
+    List<Match> matches = new ArrayList<>();
+    for (int i = first; i < topics.length && matches.size() < limit && startsWith(i, lowerCasePrefix); i++) {
+      matches.add(new Match(getContextId(i), topics[i], 0));
+    }
+    return matches;
+  }
+
+  /** Returns the number of IDs starting with a prefix. */
+  public int countCompletions(String prefix) {
+    String lowerCasePrefix = prefix.toLowerCase(Locale.UK);
+    return prefixEnd(lowerCasePrefix) - lowerBound(lowerCasePrefix);
+  }
+
+  /**
+   * Returns up to {@code limit} IDs within an edit distance of a mistyped ID, closest first and then in alphabetical
+   * order. Each insertion, deletion or substitution of a character counts as one edit.
+   */
+  public List<Match> suggest(String mistyped, int maxDistance, int limit) {
+    String target = mistyped.toLowerCase(Locale.UK);
+    int columns = target.length() + 1;
+
+    // Row d holds the distances from the first d characters of the current ID to each prefix of the target
+    int[][] rows = new int[maxLength + 1][columns];
+    for (int column = 0; column < columns; column++) {
+      rows[0][column] = column;
+    }
+
+    List<Match> matches = new ArrayList<>();
+    int validRows = 0;
+    int i = 0;
+    while (i < topics.length) {
+      int start = contextIdOffsets[i];
+      int length = contextIdOffsets[i + 1] - start;
+
+      // Rows for the prefix this ID shares with the previous one are still valid
+      int depth = i == 0 ? 0 : Math.min(validRows, commonPrefixLength(i - 1, i));
+      boolean pruned = false;
+      while (depth < length) {
+        char c = contextIdChars[start + depth];
+        int[] previous = rows[depth];
+        int[] row = rows[++depth];
+        row[0] = depth;
+        int rowMin = row[0];
+        for (int column = 1; column < columns; column++) {
+          int cost = target.charAt(column - 1) == c ? 0 : 1;
+          row[column] = Math.min(Math.min(row[column - 1] + 1, previous[column] + 1), previous[column - 1] + cost);
+          rowMin = Math.min(rowMin, row[column]);
+        }
+        if (rowMin > maxDistance) {
+          pruned = true;
+          break;
+        }
+      }
+
+      if (pruned) {
+        // Nothing starting with this prefix can come close enough
+        validRows = depth - 1;
+        i = prefixEnd(new String(contextIdChars, start, depth));
+        continue;
+      }
+      validRows = length;
+      int distance = rows[length][columns - 1];
+      if (distance <= maxDistance) {
+        matches.add(new Match(getContextId(i), topics[i], distance));
+      }
+      i++;
+    }
+
+    matches.sort(Comparator.comparingInt((Match match) -> match.distance).thenComparing(match -> match.contextId));
+    return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+  }
+
+  /** Returns the index of the first ID not less than a lower-cased string. */
+  private int lowerBound(String lowerCaseKey) {
+    int low = 0;
+    int high = topics.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compare(middle, lowerCaseKey) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /** Returns the index of the first ID after all those starting with a lower-cased prefix. */
+  private int prefixEnd(String lowerCasePrefix) {
+    int low = 0;
+    int high = topics.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compare(middle, lowerCasePrefix) < 0 || startsWith(middle, lowerCasePrefix)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private int compare(int entry, String key) {
+    int start = contextIdOffsets[entry];
+    int length = contextIdOffsets[entry + 1] - start;
+    int common = Math.min(length, key.length());
+    for (int i = 0; i < common; i++) {
+      int difference = contextIdChars[start + i] - key.charAt(i);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return length - key.length();
+  }
+
+  private boolean startsWith(int entry, String prefix) {
+    int start = contextIdOffsets[entry];
+    if (contextIdOffsets[entry + 1] - start < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (contextIdChars[start + i] != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int commonPrefixLength(int first, int second) {
+    int firstStart = contextIdOffsets[first];
+    int secondStart = contextIdOffsets[second];
+    int common = Math.min(contextIdOffsets[first + 1] - firstStart, contextIdOffsets[second + 1] - secondStart);
+    int length = 0;
+    while (length < common && contextIdChars[firstStart + length] == contextIdChars[secondStart + length]) {
+      length++;
+    }
+    return length;
+  }
+
+  private String getContextId(int entry) {
+    return new String(contextIdChars, contextIdOffsets[entry], contextIdOffsets[entry + 1] - contextIdOffsets[entry]);
+  }
+}
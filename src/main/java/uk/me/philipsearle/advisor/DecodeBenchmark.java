@@ -0,0 +1,181 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures decode throughput on a real file, for comparing JVM flags and machine types where JMH isn't available. Each
+ * iteration loads the document with its topics left compressed, then decodes, and optionally renders to HTML, every
+ * topic on the calling thread. Warm-up iterations run the same code but their results are discarded.
+ * <p>
+ * Results are written as a single JSON object so runs can be collected and compared by a script.
+ */
+class DecodeBenchmark {
+  private final File documentFile;
+  private final Charset charset;
+  private final int warmUpIterations;
+  private final int iterations;
+  private final boolean render;
+
+  // Totals over the measured iterations
+  private long loadNanos;
+  private long minLoadNanos = Long.MAX_VALUE;
+  private long decodeNanos;
+  private long topicsDecoded;
+  private long decompressedBytes;
+  private long linesRendered;
+  private long renderedChars;
+  private long allocatedBytes;
+  private int measuredIterations;
+  private int topicCount;
+
+  /** Latency of every topic in every measured iteration. */
+  private long[] topicLatencies;
+
+  DecodeBenchmark(File documentFile, Charset charset, int warmUpIterations, int iterations, boolean render) {
+    if (iterations < 1 || warmUpIterations < 0) {
+      throw new IllegalArgumentException("Need at least one iteration and no negative warm-up");
+    }
+    this.documentFile = documentFile;
+    this.charset = charset;
+    this.warmUpIterations = warmUpIterations;
+    this.iterations = iterations;
+    this.render = render;
+  }
+
+  void run() throws IOException, URISyntaxException {
+    for (int iteration = 0; iteration < warmUpIterations; iteration++) {
+      runIteration(false);
+    }
+    for (int iteration = 0; iteration < iterations; iteration++) {
+      runIteration(true);
+    }
+  }
+
+  private void runIteration(boolean measured) throws IOException, URISyntaxException {
+    long loadStart = System.nanoTime();
+    CompressedResidentAdvisorDocument document = new AdvisorDocumentLoader(charset)
+            .loadCompressedDocument(documentFile);
+    long loadEnd = System.nanoTime();
+
+    List<HelpTopic> topics = document.getTopics();
+    long[] latencies = new long[topics.size()];
+    long iterationDecompressedBytes = 0;
+    long iterationLines = 0;
+    long iterationChars = 0;
+
+    long allocatedBefore = ThreadAllocation.getAllocatedBytes();
+    long decodeStart = System.nanoTime();
+    for (int topic = 0; topic < latencies.length; topic++) {
+      long topicStart = System.nanoTime();
+      List<HelpTopicLine> text = topics.get(topic).getText();
+      if (render) {
+        for (HelpTopicLine line : text) {
+          iterationChars += line.getHtmlFormattedText(document.getGlobalContextMap()).length();
+        }
+      }
+      latencies[topic] = System.nanoTime() - topicStart;
+      iterationLines += text.size();
+      iterationDecompressedBytes += document.getDecompressedLength(topic);
+    }
+    long decodeEnd = System.nanoTime();
+    long allocatedAfter = ThreadAllocation.getAllocatedBytes();
+
+    if (!measured) {
+      return;
+    }
+    loadNanos += loadEnd - loadStart;
+    minLoadNanos = Math.min(minLoadNanos, loadEnd - loadStart);
+    decodeNanos += decodeEnd - decodeStart;
+    topicsDecoded += latencies.length;
+    decompressedBytes += iterationDecompressedBytes;
+    linesRendered += render ? iterationLines : 0;
+    renderedChars += iterationChars;
+    allocatedBytes += allocatedAfter - allocatedBefore;
+    if (topicLatencies == null) {
+      topicCount = latencies.length;
+      topicLatencies = new long[iterations * topicCount];
+    }
+    System.arraycopy(latencies, 0, topicLatencies, measuredIterations++ * topicCount, topicCount);
+  }
+
+  void outputJson(PrintStream out) {
+    long[] sortedLatencies = topicLatencies.clone();
+    Arrays.sort(sortedLatencies);
+    double decodeSeconds = decodeNanos / 1e9;
+
+    out.println("{");
+    out.printf("  \"file\": %s,\n", quote(documentFile.getPath()));
+    out.printf("  \"fileBytes\": %d,\n", documentFile.length());
+    out.printf("  \"topicCount\": %d,\n", topicCount);
+    out.printf("  \"render\": %s,\n", render);
+    out.printf("  \"warmUpIterations\": %d,\n", warmUpIterations);
+    out.printf("  \"iterations\": %d,\n", iterations);
+    out.printf("  \"jvm\": {\n");
+    out.printf("    \"version\": %s,\n", quote(System.getProperty("java.version")));
+    out.printf("    \"vendor\": %s,\n", quote(System.getProperty("java.vendor")));
+    out.printf("    \"vmName\": %s,\n", quote(System.getProperty("java.vm.name")));
+    out.printf("    \"arguments\": [%s],\n", quoteAll(ManagementFactory.getRuntimeMXBean().getInputArguments()));
+    out.printf("    \"osArch\": %s,\n", quote(System.getProperty("os.arch")));
+    out.printf("    \"availableProcessors\": %d,\n", Runtime.getRuntime().availableProcessors());
+    out.printf("    \"maxHeapBytes\": %d\n", Runtime.getRuntime().maxMemory());
+    out.printf("  },\n");
+    out.printf(Locale.ROOT, "  \"loadMillis\": { \"mean\": %.3f, \"min\": %.3f },\n", loadNanos / 1e6 / iterations,
+            minLoadNanos / 1e6);
+    out.printf(Locale.ROOT, "  \"topicsPerSecond\": %.1f,\n", topicsDecoded / decodeSeconds);
+    out.printf(Locale.ROOT, "  \"decompressedMBPerSecond\": %.3f,\n", decompressedBytes / 1e6 / decodeSeconds);
+    if (render) {
+      out.printf(Locale.ROOT, "  \"linesRenderedPerSecond\": %.1f,\n", linesRendered / decodeSeconds);
+      out.printf("  \"renderedCharsPerIteration\": %d,\n", renderedChars / iterations);
+    }
+    out.printf(Locale.ROOT, "  \"topicLatencyMicros\": { \"p50\": %.3f, \"p90\": %.3f, \"p99\": %.3f, "
+            + "\"p999\": %.3f, \"max\": %.3f },\n",
+            percentile(sortedLatencies, 0.5) / 1e3, percentile(sortedLatencies, 0.9) / 1e3,
+            percentile(sortedLatencies, 0.99) / 1e3, percentile(sortedLatencies, 0.999) / 1e3,
+            percentile(sortedLatencies, 1) / 1e3);
+    if (ThreadAllocation.isSupported()) {
+      out.printf(Locale.ROOT, "  \"allocatedBytesPerTopic\": %.1f\n", (double) allocatedBytes / topicsDecoded);
+    } else {
+      out.printf("  \"allocatedBytesPerTopic\": null\n");
+    }
+    out.println("}");
+  }
+
+  /** Nearest-rank percentile of a sorted array. */
+  private static long percentile(long[] sorted, double fraction) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(fraction * sorted.length);
+    return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+  }
+
+  private static String quoteAll(List<String> values) {
+    StringBuilder quoted = new StringBuilder();
+    for (String value : values) {
+      quoted.append(quoted.length() == 0 ? "" : ", ").append(quote(value));
+    }
+    return quoted.toString();
+  }
+
+  private static String quote(String value) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for (char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
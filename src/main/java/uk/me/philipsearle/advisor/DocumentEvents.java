@@ -0,0 +1,40 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.File;
+
+/**
+ * Hooks for Java Flight Recorder events covering document loading, topic decoding and line rendering. This is the Java
+ * 8 version and does nothing. On Java 11 and later the multi-release JAR substitutes the version in
+ * {@code src/main/java11}, which emits events that are disabled until a recording's settings enable them.
+ * <p>
+ * Each {@code begin} method returns an opaque handle, which may be null, to pass to the matching {@code end} method.
+ */
+final class DocumentEvents {
+
+  private DocumentEvents() {
+  }
+
+  static Object beginDocumentLoad() {
+    return null;
+  }
+
+  /**
+   * @param mode how the document was loaded, e.g. {@code full} or {@code on-demand}
+   */
+  static void endDocumentLoad(Object event, File document, String mode, int topicCount) {
+  }
+
+  static Object beginTopicDecode() {
+    return null;
+  }
+
+  static void endTopicDecode(Object event, int topic, int compressedLength, int decompressedLength) {
+  }
+
+  static Object beginLineRender() {
+    return null;
+  }
+
+  static void endLineRender(Object event, int textLength, int renderedLength) {
+  }
+}
@@ -0,0 +1,159 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mindprod.ledatastream.LERandomAccessFile;
+
+/**
+ * Little-endian random access to the bytes of a document, addressed by file offset. Lets the loader parse either
+ * straight from the file or from regions of the file that have already been read into memory.
+ */
+interface DocumentInput {
+
+  int readUnsignedByte() throws IOException;
+
+  int readUnsignedShort() throws IOException;
+
+  long readUnsignedInt() throws IOException;
+
+  void readFully(byte[] buffer) throws IOException;
+
+  void seek(long offset) throws IOException;
+
+  long getFilePointer() throws IOException;
+
+  /**
+   * Wraps an input to count the bytes read through it. Seeking doesn't count.
+   */
+  static DocumentInput counting(DocumentInput input, LongAdder bytesRead) {
+    return new DocumentInput() {
+      @Override
+      public int readUnsignedByte() throws IOException {
+        bytesRead.add(1);
+        return input.readUnsignedByte();
+      }
+
+      @Override
+      public int readUnsignedShort() throws IOException {
+        bytesRead.add(2);
+        return input.readUnsignedShort();
+      }
+
+      @Override
+      public long readUnsignedInt() throws IOException {
+        bytesRead.add(4);
+        return input.readUnsignedInt();
+      }
+
+      @Override
+      public void readFully(byte[] buffer) throws IOException {
+        bytesRead.add(buffer.length);
+        input.readFully(buffer);
+      }
+
+      @Override
+      public void seek(long offset) throws IOException {
+        input.seek(offset);
+      }
+
+      @Override
+      public long getFilePointer() throws IOException {
+        return input.getFilePointer();
+      }
+    };
+  }
+
+  static DocumentInput of(LERandomAccessFile file) {
+    return new DocumentInput() {
+      @Override
+      public int readUnsignedByte() throws IOException {
+        return file.readUnsignedByte();
+      }
+
+      @Override
+      public int readUnsignedShort() throws IOException {
+        return file.readUnsignedShort();
+      }
+
+      @Override
+      public long readUnsignedInt() throws IOException {
+        return file.readUnsignedInt();
+      }
+
+      @Override
+      public void readFully(byte[] buffer) throws IOException {
+        file.readFully(buffer);
+      }
+
+      @Override
+      public void seek(long offset) throws IOException {
+        file.seek(offset);
+      }
+
+      @Override
+      public long getFilePointer() throws IOException {
+        return file.getFilePointer();
+      }
+    };
+  }
+
+  /**
+   * Reads from a region of the file held in memory.
+   *
+   * @param region the bytes of the region, from position zero to the limit
+   * @param regionOffset the file offset of the first byte of the region
+   */
+  static DocumentInput of(ByteBuffer region, long regionOffset) {
+    ByteBuffer buffer = region.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    buffer.position(0);
+    return new DocumentInput() {
+      @Override
+      public int readUnsignedByte() throws IOException {
+        require(1);
+        return buffer.get() & 0xff;
+      }
+
+      @Override
+      public int readUnsignedShort() throws IOException {
+        require(2);
+        return buffer.getShort() & 0xffff;
+      }
+
+      @Override
+      public long readUnsignedInt() throws IOException {
+        require(4);
+        return buffer.getInt() & 0xffffffffL;
+      }
+
+      @Override
+      public void readFully(byte[] destination) throws IOException {
+        require(destination.length);
+        buffer.get(destination);
+      }
+
+      @Override
+      public void seek(long offset) throws IOException {
+        if (offset < regionOffset || offset > regionOffset + buffer.limit()) {
+          throw new BadAdvisorFileException("Offset " + offset + " is outside the region read from the file ("
+                  + regionOffset + " to " + (regionOffset + buffer.limit()) + ")");
+        }
+        buffer.position((int) (offset - regionOffset));
+      }
+
+      @Override
+      public long getFilePointer() {
+        return regionOffset + buffer.position();
+      }
+
+      private void require(int length) throws EOFException {
+        if (buffer.remaining() < length) {
+          throw new EOFException("Read past the end of the region read from the file at offset " + getFilePointer());
+        }
+      }
+    };
+  }
+}
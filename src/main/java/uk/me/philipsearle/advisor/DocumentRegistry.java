@@ -0,0 +1,201 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves many on-demand documents from one JVM with a single limit on the heap used by decoded topics. All documents
+ * share one {@link SharedTopicCache}, so a popular topic in one file can push out rarely used topics of another, and
+ * the total stays under the cap however many files are registered. File handles that haven't been read from for a
+ * while are closed in the background and reopened when next needed. Rendered topics can be kept too, in a
+ * {@link RenderedTopicCache} with its own limit.
+ */
+public class DocumentRegistry implements Closeable {
+  private static class Registration {
+    final File file;
+    final OnDemandAdvisorDocument document;
+    final SharedTopicCache.DocumentCache topicCache;
+
+    Registration(File file, OnDemandAdvisorDocument document, SharedTopicCache.DocumentCache topicCache) {
+      this.file = file;
+      this.document = document;
+      this.topicCache = topicCache;
+    }
+  }
+
+  private final Charset charset;
+  private final SharedTopicCache topicCache;
+  private final RenderedTopicCache renderedTopicCache;
+  private final long idleNanos;
+
+  /** Registered documents by canonical path, in registration order. */
+  private final Map<String, Registration> documentsByPath = new LinkedHashMap<>();
+
+  /** Registered documents by original 8.3 name; where several share a name, the first registered wins. */
+  private final CaseInsensitiveHashMap<Registration> documentsByName = new CaseInsensitiveHashMap<>();
+
+  private final ScheduledExecutorService idleHandleCloser = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "document-registry-idle");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * @param maxCacheBytes the most heap that decoded topics of all documents together may use, as estimated by
+   *          {@link SharedTopicCache#estimateBytes(List)}
+   * @param idleMillis how long a file handle may go unused before it is closed
+   */
+  public DocumentRegistry(Charset charset, long maxCacheBytes, long idleMillis) {
+    this(charset, maxCacheBytes, 0, idleMillis);
+  }
+
+  /**
+   * @param maxCacheBytes the most heap that decoded topics of all documents together may use, as estimated by
+   *          {@link SharedTopicCache#estimateBytes(List)}
+   * @param maxRenderedBytes the most heap that rendered topics of all documents together may use, as estimated by
+   *          {@link RenderedTopicCache#estimateBytes(byte[])}
+   * @param idleMillis how long a file handle may go unused before it is closed
+   */
+  public DocumentRegistry(Charset charset, long maxCacheBytes, long maxRenderedBytes, long idleMillis) {
+    this.charset = charset;
+    this.topicCache = new SharedTopicCache(maxCacheBytes);
+    this.renderedTopicCache = new RenderedTopicCache(maxRenderedBytes);
+    this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+    long sweepMillis = Math.max(1, idleMillis / 2);
+    idleHandleCloser.scheduleWithFixedDelay(this::closeIdleHandles, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns the document at a path, opening and registering it if it isn't already.
+   */
+  public synchronized OnDemandAdvisorDocument open(File file) throws IOException {
+    String path = file.getCanonicalPath();
+    Registration registration = documentsByPath.get(path);
+    if (registration == null) {
+      SharedTopicCache.DocumentCache documentCache = topicCache.newDocumentCache();
+      OnDemandAdvisorDocument document = new AdvisorDocumentLoader(charset).openDocument(file, documentCache);
+      registration = new Registration(file, document, documentCache);
+      documentsByPath.put(path, registration);
+      if (documentsByName.get(document.getOriginalName()) == null) {
+        documentsByName.put(document.getOriginalName(), registration);
+      }
+    }
+    return registration.document;
+  }
+
+  /**
+   * Returns a registered document by its original name, such as {@code QBASIC.HLP}, or otherwise opens the document at
+   * the given path.
+   *
+   * @return the document, or null if no document has that name and there is no such file
+   */
+  public synchronized OnDemandAdvisorDocument get(String nameOrPath) throws IOException {
+    Registration registration = documentsByName.get(nameOrPath);
+    if (registration != null) {
+      return registration.document;
+    }
+    File file = new File(nameOrPath);
+    return file.isFile() ? open(file) : null;
+  }
+
+  /**
+   * Returns a topic of a registered document rendered in the given format and encoded as UTF-8, from the rendered topic
+   * cache if it's there. Links to global context IDs that aren't in the document are left without a target. The
+   * returned array is shared and must not be modified.
+   */
+  public byte[] render(OnDemandAdvisorDocument document, int topic, TopicRenderer.Factory format) {
+    return renderedTopicCache.get(document, topic, format, globalContextId -> null);
+  }
+
+  /**
+   * Closes any file handle that hasn't been read from for the idle time. This runs periodically in the background.
+   *
+   * @return the number of handles closed
+   */
+  public int closeIdleHandles() {
+    int closed = 0;
+    for (Registration registration : getRegistrations()) {
+      try {
+        if (registration.document.closeIfIdle(idleNanos)) {
+          closed++;
+        }
+      } catch (IOException e) {
+        System.err.println("Warning: failed to close " + registration.file + ": " + e.getMessage());
+      }
+    }
+    return closed;
+  }
+
+  private synchronized List<Registration> getRegistrations() {
+    return new ArrayList<>(documentsByPath.values());
+  }
+
+  /** Returns the estimated heap used by the decoded topics of all documents. */
+  public long getCachedBytes() {
+    return topicCache.getResidentBytes();
+  }
+
+  /**
+   * Writes a line per document with its cached topics, their estimated heap use and the cache's hit rate, followed by
+   * totals for the whole registry.
+   */
+  public void outputStatistics(PrintStream out) {
+    out.printf("%-12s %7s %7s %12s %10s %10s %7s %5s  %s\n", "Name", "Topics", "Cached", "Bytes", "Hits", "Misses",
+            "Hit %", "Open", "Path");
+    long hits = 0;
+    long misses = 0;
+    for (Registration registration : getRegistrations()) {
+      SharedTopicCache.DocumentCache documentCache = registration.topicCache;
+      long documentHits = documentCache.getHitCount();
+      long documentMisses = documentCache.getMissCount();
+      hits += documentHits;
+      misses += documentMisses;
+      out.printf(Locale.ROOT, "%-12s %7d %7d %12d %10d %10d %7.1f %5s  %s\n",
+              registration.document.getOriginalName(), registration.document.getTopics().size(),
+              documentCache.size(), documentCache.getResidentBytes(), documentHits, documentMisses,
+              hitPercentage(documentHits, documentMisses), registration.document.isOpen() ? "yes" : "no",
+              registration.file);
+    }
+    out.printf("\nCached: %d topics, %d of %d bytes\n", topicCache.getResidentTopicCount(),
+            topicCache.getResidentBytes(), topicCache.getMaxBytes());
+    out.printf(Locale.ROOT, "Hits: %d, misses: %d (%.1f%% hit rate)\n", hits, misses, hitPercentage(hits, misses));
+    out.printf("Evictions: %d, rejected: %d\n", topicCache.getEvictionCount(), topicCache.getRejectionCount());
+    out.println();
+    renderedTopicCache.outputStatistics(out);
+  }
+
+  private static double hitPercentage(long hits, long misses) {
+    return hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses);
+  }
+
+  /** Closes every document and drops their cached and rendered topics. */
+  @Override
+  public synchronized void close() throws IOException {
+    idleHandleCloser.shutdownNow();
+    IOException failure = null;
+    for (Registration registration : documentsByPath.values()) {
+      registration.topicCache.clear();
+      renderedTopicCache.invalidate(registration.document);
+      try {
+        registration.document.close();
+      } catch (IOException e) {
+        failure = failure == null ? e : failure;
+      }
+    }
+    documentsByPath.clear();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package uk.me.philipsearle.advisor;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches a .HLP file, or a directory tree of them, and re-exports each document shortly after it changes. Bursts of
+ * change events (a help compiler typically writes a file in several pieces) are debounced into a single reload, and
+ * only the changed document is reloaded and re-exported.
+ */
+class DocumentWatcher {
+  private final Path watchedPath;
+  private final Path outputDirectory;
+  private final long debounceMillis;
+  private final PrintStream out;
+  private final AdvisorDocumentLoader documentLoader;
+
+  /** Runs all reloads, one at a time, so the loader can be reused. */
+  private final ScheduledExecutorService reloadExecutor = Executors.newSingleThreadScheduledExecutor();
+
+  /**
+   * Pending reloads, the generation of the latest one and the time of the first change event they cover, by document.
+   * Guarded by this.
+   */
+  private final Map<Path, ScheduledFuture<?>> pendingReloads = new HashMap<>();
+  private final Map<Path, Long> pendingGenerations = new HashMap<>();
+  private final Map<Path, Long> firstEventNanos = new HashMap<>();
+  private long nextGeneration;
+
+  DocumentWatcher(Charset charset, Path watchedPath, Path outputDirectory, long debounceMillis, PrintStream out) {
+    this.watchedPath = watchedPath.toAbsolutePath();
+    this.outputDirectory = outputDirectory;
+    this.debounceMillis = debounceMillis;
+    this.out = out;
+    this.documentLoader = new AdvisorDocumentLoader(charset);
+  }
+
+  /**
+   * Watches until the thread is interrupted.
+   */
+  void watch() throws IOException, InterruptedException {
+    try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+      Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+      if (Files.isDirectory(watchedPath)) {
+        registerTree(watchService, watchedPath, watchedDirectories);
+      } else {
+        watchedDirectories.put(watchedPath.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY),
+                watchedPath.getParent());
+      }
+      out.println("Watching " + watchedPath + " for changes");
+
+      while (true) {
+        WatchKey key = watchService.take();
+        Path directory = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == OVERFLOW || directory == null) {
+            continue;
+          }
+
+          Path changed = directory.resolve((Path) event.context());
+          if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed) && Files.isDirectory(watchedPath)) {
+            registerTree(watchService, changed, watchedDirectories);
+          } else if (isWatchedDocument(changed)) {
+            scheduleReload(changed);
+          }
+        }
+        if (!key.reset()) {
+          watchedDirectories.remove(key);
+        }
+      }
+    } finally {
+      reloadExecutor.shutdownNow();
+    }
+  }
+
+  private void registerTree(WatchService watchService, Path root, Map<WatchKey, Path> watchedDirectories)
+          throws IOException {
+    try (Stream<Path> directories = Files.walk(root)) {
+      for (Path directory : (Iterable<Path>) directories.filter(Files::isDirectory)::iterator) {
+        watchedDirectories.put(directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), directory);
+      }
+    }
+  }
+
+  private boolean isWatchedDocument(Path path) {
+    if (Files.isDirectory(watchedPath)) {
+      return path.getFileName().toString().toUpperCase(Locale.UK).endsWith(".HLP");
+    }
+    return path.equals(watchedPath);
+  }
+
+  /** (Re)starts the debounce timer for a document, remembering when the first event of the burst arrived. */
+  private synchronized void scheduleReload(Path document) {
+    firstEventNanos.putIfAbsent(document, System.nanoTime());
+    ScheduledFuture<?> pending = pendingReloads.get(document);
+    if (pending != null) {
+      pending.cancel(false);
+    }
+    long generation = ++nextGeneration;
+    pendingGenerations.put(document, generation);
+    pendingReloads.put(document, reloadExecutor.schedule(() -> reload(document, generation), debounceMillis,
+            TimeUnit.MILLISECONDS));
+  }
+
+  private void reload(Path document, long generation) {
+    long start = System.nanoTime();
+    try {
+      Long eventNanos;
+      synchronized (this) {
+        // A change event that arrived after this reload started has scheduled another, whose entries must stay
+        if (Long.valueOf(generation).equals(pendingGenerations.get(document))) {
+          pendingReloads.remove(document);
+          pendingGenerations.remove(document);
+          eventNanos = firstEventNanos.remove(document);
+        } else {
+          eventNanos = firstEventNanos.get(document);
+        }
+      }
+
+      File documentOutputDirectory = (Files.isDirectory(watchedPath)
+              ? BatchExporter.getOutputDirectory(watchedPath, document, outputDirectory)
+              : outputDirectory).toFile();
+      if (!documentOutputDirectory.isDirectory() && !documentOutputDirectory.mkdirs()) {
+        throw new IOException("Could not create " + documentOutputDirectory);
+      }
+
+      AdvisorDocument advisorDocument = documentLoader.loadDocument(document.toFile());
+      HtmlTopicExtractor.exportDocument(advisorDocument, documentOutputDirectory);
+      int staleTopics = removeStaleTopics(documentOutputDirectory, advisorDocument.getTopics().size());
+
+      long end = System.nanoTime();
+      out.printf("Re-exported %s: %d topics (%d stale removed) in %d ms, %d ms after first change\n", document,
+              advisorDocument.getTopics().size(), staleTopics, (end - start) / 1_000_000,
+              (end - (eventNanos != null ? eventNanos : start)) / 1_000_000);
+    } catch (IOException | RuntimeException e) {
+      // The file may still be half written; the next change event will trigger another attempt
+      out.printf("Failed to re-export %s: %s\n", document, e);
+    }
+  }
+
+  /** Deletes topic files left over from a previous version of the document that had more topics. */
+  private static int removeStaleTopics(File outputDirectory, int topicCount) {
+    int removed = 0;
+    File[] files = outputDirectory.listFiles((directory, name) -> name.matches("TOPIC_\\d+\\.HTML"));
+    for (File file : files == null ? new File[0] : files) {
+      String name = file.getName();
+      int topic = Integer.parseInt(name.substring("TOPIC_".length(), name.length() - ".HTML".length()));
+      if (topic >= topicCount && file.delete()) {
+        removed++;
+      }
+    }
+    return removed;
+  }
+}
@@ -0,0 +1,311 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Maps the global context IDs of a whole library of documents to the document and topic they refer to, so that a link
+ * to a topic in another file can be resolved without loading that file. Only the header and context table of each file
+ * are read, in parallel.
+ * <p>
+ * Lookups are case-insensitive and take constant time, and don't lock. The IDs are held as lower-cased characters in
+ * one array per document, found through a single open-addressed hash table, so the index has no object per ID. Adding,
+ * removing or refreshing documents only reads the files that changed, then rebuilds the hash table from the rest.
+ * Where several documents have the same ID, such as {@code h.contents}, the document added first wins.
+ */
+public class GlobalContextIndex {
+
+  /** Where a global context ID leads. */
+  public static class Target {
+    public final File document;
+    public final String originalName;
+    public final int localContextId;
+
+    Target(File document, String originalName, int localContextId) {
+      this.document = document;
+      this.originalName = originalName;
+      this.localContextId = localContextId;
+    }
+  }
+
+  /** The context IDs of one document. */
+  private static class Segment {
+    final File file;
+    final long lastModified;
+    final long length;
+    final String originalName;
+
+    /** Lower-cased IDs, one after the other; ID i runs from offsets[i] to offsets[i + 1]. */
+    final char[] contextIdChars;
+    final int[] contextIdOffsets;
+    final int[] topics;
+
+    Segment(File file, AdvisorDocumentLoader.ContextTable contextTable) {
+      this.file = file;
+      this.lastModified = file.lastModified();
+      this.length = file.length();
+      this.originalName = contextTable.originalName;
+
+      int count = 0;
+      int charCount = 0;
+      for (int i = 0; i < contextTable.contextIds.length; i++) {
+        if (contextTable.topics[i] < contextTable.topicCount) {
+          count++;
+          charCount += contextTable.contextIds[i].length();
+        } else {
+          System.err.println("Warning: global context ID " + contextTable.contextIds[i] + " in " + file
+                  + " refers to missing topic " + contextTable.topics[i]);
+        }
+      }
+      contextIdChars = new char[charCount];
+      contextIdOffsets = new int[count + 1];
+      topics = new int[count];
+      int entry = 0;
+      for (int i = 0; i < contextTable.contextIds.length; i++) {
+        if (contextTable.topics[i] < contextTable.topicCount) {
+          String contextId = contextTable.contextIds[i].toLowerCase(Locale.UK);
+          contextId.getChars(0, contextId.length(), contextIdChars, contextIdOffsets[entry]);
+          contextIdOffsets[entry + 1] = contextIdOffsets[entry] + contextId.length();
+          topics[entry++] = contextTable.topics[i];
+        }
+      }
+    }
+
+    int size() {
+      return topics.length;
+    }
+
+    int hash(int entry) {
+      int hash = 0;
+      for (int i = contextIdOffsets[entry]; i < contextIdOffsets[entry + 1]; i++) {
+        hash = 31 * hash + contextIdChars[i];
+      }
+      return hash;
+    }
+
+    boolean matches(int entry, String lowerCaseContextId) {
+      int start = contextIdOffsets[entry];
+      if (contextIdOffsets[entry + 1] - start != lowerCaseContextId.length()) {
+        return false;
+      }
+      for (int i = 0; i < lowerCaseContextId.length(); i++) {
+        if (contextIdChars[start + i] != lowerCaseContextId.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** An immutable snapshot of the index, replaced whenever the set of documents changes. */
+  private static class Table {
+    final Segment[] segments;
+
+    /** Segment number in the high half and entry number in the low half, or -1 for an empty slot. */
+    final long[] slots;
+    final int size;
+    final int duplicates;
+
+    Table(Segment[] segments) {
+      this.segments = segments;
+      int total = 0;
+      for (Segment segment : segments) {
+        total += segment.size();
+      }
+      slots = new long[Integer.highestOneBit(Math.max(8, total) * 2) * 2];
+      Arrays.fill(slots, -1);
+
+      int inserted = 0;
+      int duplicated = 0;
+      for (int s = 0; s < segments.length; s++) {
+        for (int entry = 0; entry < segments[s].size(); entry++) {
+          int slot = findSlot(segments[s], entry);
+          if (slots[slot] < 0) {
+            slots[slot] = ((long) s << 32) | entry;
+            inserted++;
+          } else {
+            duplicated++;
+          }
+        }
+      }
+      size = inserted;
+      duplicates = duplicated;
+    }
+
+    /** Returns the slot holding the same ID as the given entry, or the empty slot where it belongs. */
+    private int findSlot(Segment segment, int entry) {
+      int mask = slots.length - 1;
+      int contextIdStart = segment.contextIdOffsets[entry];
+      String contextId = new String(segment.contextIdChars, contextIdStart,
+              segment.contextIdOffsets[entry + 1] - contextIdStart);
+      for (int slot = spread(segment.hash(entry)) & mask; ; slot = (slot + 1) & mask) {
+        if (slots[slot] < 0 || matches(slots[slot], contextId)) {
+          return slot;
+        }
+      }
+    }
+
+    Target get(String lowerCaseContextId) {
+      int mask = slots.length - 1;
+      for (int slot = spread(lowerCaseContextId.hashCode()) & mask; slots[slot] >= 0; slot = (slot + 1) & mask) {
+        if (matches(slots[slot], lowerCaseContextId)) {
+          Segment segment = segments[(int) (slots[slot] >>> 32)];
+          return new Target(segment.file, segment.originalName, segment.topics[(int) slots[slot]]);
+        }
+      }
+      return null;
+    }
+
+    private boolean matches(long slot, String lowerCaseContextId) {
+      return segments[(int) (slot >>> 32)].matches((int) slot, lowerCaseContextId);
+    }
+
+    private static int spread(int hash) {
+      return hash ^ (hash >>> 16);
+    }
+  }
+
+  private final Charset charset;
+
+  /** Indexed documents by canonical path, in the order they were added. */
+  private final Map<String, Segment> segments = new LinkedHashMap<>();
+
+  private volatile Table table = new Table(new Segment[0]);
+
+  public GlobalContextIndex(Charset charset) {
+    this.charset = charset;
+  }
+
+  /**
+   * Adds documents to the index, reading their context tables in parallel. Documents already in the index are re-read
+   * only if they have changed. A document that can't be read is left out, or keeps what was read from it before.
+   *
+   * @return the documents that couldn't be read, with the reason for each
+   */
+  public synchronized Map<File, IOException> add(Collection<File> documents) throws IOException {
+    Map<String, File> toRead = new LinkedHashMap<>();
+    for (File document : documents) {
+      String path = document.getCanonicalPath();
+      Segment segment = segments.get(path);
+      if (segment == null || hasChanged(segment)) {
+        toRead.put(path, document);
+      }
+    }
+    Map<File, IOException> failures = new LinkedHashMap<>();
+    Map<String, Segment> read = readSegments(toRead, failures);
+    segments.putAll(read);
+    if (!read.isEmpty()) {
+      rebuild();
+    }
+    return failures;
+  }
+
+  /** Removes a document from the index. */
+  public synchronized void remove(File document) throws IOException {
+    if (segments.remove(document.getCanonicalPath()) != null) {
+      rebuild();
+    }
+  }
+
+  /**
+   * Re-reads the context tables of documents whose files have changed, and drops documents that no longer exist. A
+   * changed document that can't be read is reported and dropped too.
+   *
+   * @return whether anything changed
+   */
+  public synchronized boolean refresh() {
+    Map<String, File> toRead = new LinkedHashMap<>();
+    boolean removed = segments.values().removeIf(segment -> !segment.file.isFile());
+    segments.forEach((path, segment) -> {
+      if (hasChanged(segment)) {
+        toRead.put(path, segment.file);
+      }
+    });
+    Map<File, IOException> failures = new LinkedHashMap<>();
+    Map<String, Segment> read = readSegments(toRead, failures);
+    for (Map.Entry<String, File> document : toRead.entrySet()) {
+      IOException failure = failures.get(document.getValue());
+      if (failure != null) {
+        System.err.println("Warning: dropping " + document.getValue() + " from the index: " + failure.getMessage());
+        segments.remove(document.getKey());
+        removed = true;
+      }
+    }
+    segments.putAll(read);
+    if (removed || !read.isEmpty()) {
+      rebuild();
+      return true;
+    }
+    return false;
+  }
+
+  private static boolean hasChanged(Segment segment) {
+    return segment.file.lastModified() != segment.lastModified || segment.file.length() != segment.length;
+  }
+
+  /**
+   * Reads the context tables of documents in parallel, leaving out any that can't be read.
+   *
+   * @param failures receives the documents that couldn't be read, with the reason for each
+   */
+  private Map<String, Segment> readSegments(Map<String, File> documents, Map<File, IOException> failures) {
+    List<Map.Entry<String, File>> entries = new ArrayList<>(documents.entrySet());
+    Segment[] read = new Segment[entries.size()];
+    IOException[] errors = new IOException[entries.size()];
+    // Each read gets its own loader, as a loader keeps the state of the file it is reading
+    IntStream.range(0, read.length).parallel().forEach(i -> {
+      File document = entries.get(i).getValue();
+      try {
+        read[i] = new Segment(document, new AdvisorDocumentLoader(charset).readContextTable(document));
+      } catch (IOException e) {
+        errors[i] = e;
+      } catch (RuntimeException e) {
+        // A damaged file can also trip the parser up on values it doesn't expect
+        errors[i] = new IOException("Failed to read context table of " + document + ": " + e, e);
+      }
+    });
+    Map<String, Segment> segmentsByPath = new LinkedHashMap<>();
+    for (int i = 0; i < read.length; i++) {
+      if (errors[i] != null) {
+        failures.put(entries.get(i).getValue(), errors[i]);
+      } else {
+        segmentsByPath.put(entries.get(i).getKey(), read[i]);
+      }
+    }
+    return segmentsByPath;
+  }
+
+  private void rebuild() {
+    table = new Table(segments.values().toArray(new Segment[0]));
+  }
+
+  /**
+   * Returns where a global context ID leads, or null if no indexed document has it.
+   */
+  public Target resolve(String contextId) {
+    return table.get(contextId.toLowerCase(Locale.UK));
+  }
+
+  /** Returns the number of distinct global context IDs in the index. */
+  public int size() {
+    return table.size;
+  }
+
+  /** Returns the number of IDs hidden because a document added earlier has the same ID. */
+  public int getDuplicateCount() {
+    return table.duplicates;
+  }
+
+  public int getDocumentCount() {
+    return table.segments.length;
+  }
+}
@@ -1,12 +1,15 @@
 package uk.me.philipsearle.advisor;
 
-import java.net.URI;
+import java.io.IOException;
+import java.io.StringWriter;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
 
 /**
  * A single line of text from a help topic. Attribute format is:
@@ -51,6 +54,25 @@ class HelpTopicLine {
     }
   }
 
+  /**
+   * A cross-reference from a span of the line to another topic. Exactly one of the two links is present. The start and
+   * end indices are stored as they are in the file: one-based and inclusive.
+   */
+  public static class Xref {
+    public final int start, end;
+    public final Optional<Integer> localContextLink;
+    public final Optional<String> globalContextLink;
+
+    Xref(int start, int end, Optional<Integer> localContextLink, Optional<String> globalContextLink) {
+      this.start = start;
+      this.end = end;
+      this.localContextLink = localContextLink;
+      this.globalContextLink = globalContextLink;
+    }
+  }
+
+  private static final int[] NO_XREF_SPANS = new int[0];
+
   private final String text;
   private final byte[] attributes;
 
@@ -154,124 +176,206 @@ class HelpTopicLine {
     return textRuns;
   }
 
-  private char safeCharAt(CharSequence cs, int index) {
-    try {
-      return cs.charAt(index);
-    } catch (StringIndexOutOfBoundsException e) {
-      System.err.println("Warning: bad string index " + index + " for string of length " + cs.length());
-      return '\ufffd';
+  /**
+   * Parses the xref data that follows the style attributes without rendering anything.
+   */
+  public List<Xref> getXrefs() {
+    List<Xref> xrefs = new ArrayList<>();
+    int index = getXrefDataStart();
+
+    while (index < attributes.length) {
+      int xrefStart = attributes[index++] & 0xff;
+      int xrefEnd = attributes[index++] & 0xff;
+      int xref = attributes[index++] & 0xff;
+
+      if (xref != 0) {
+        StringBuilder target = new StringBuilder();
+        do {
+          target.append((char) xref);
+          xref = attributes[index++] & 0xff;
+        } while (xref != 0);
+        xrefs.add(new Xref(xrefStart, xrefEnd, Optional.empty(), Optional.of(target.toString())));
+      } else {
+        xref = (attributes[index++] & 0xff);
+        xref |= (attributes[index++] & 0xff) << 8;
+        xrefs.add(new Xref(xrefStart, xrefEnd, Optional.of(xref), Optional.empty()));
+      }
     }
+    return xrefs;
   }
 
+  /**
+   * Returns the index of the first byte of xref data, or the attributes length if the line has none.
+   */
+  private int getXrefDataStart() {
+    // Skip the first byte (is it default attributes for the line?)
+    int index = 1;
+    while (index < attributes.length) {
+      int style = attributes[index++] & 0xff;
+      if (style == 0xff) {
+        return index;
+      }
+      // Skip the run length
+      index++;
+    }
+    return attributes.length;
+  }
+
+  /**
+   * @throws URISyntaxException never; it is only declared for compatibility with existing callers
+   */
   public String getHtmlFormattedText(CaseInsensitiveHashMap<HelpTopic> globalContextMap) throws URISyntaxException {
-    StringBuilder html = new StringBuilder();
-    int index = 0;
-    int textIndex = 0;
+    return getHtmlFormattedText(globalContextMap, globalContextId -> null);
+  }
 
-    int shift = 0;
-    int[] charShifts = new int[80 * 4];// bodge size, should be large enough
+  /**
+   * @param externalLinks gives the link target for a global context ID that isn't in this document, such as a topic in
+   *          another file, or null if it can't be resolved
+   * @throws URISyntaxException never; it is only declared for compatibility with existing callers
+   */
+  public String getHtmlFormattedText(CaseInsensitiveHashMap<HelpTopic> globalContextMap,
+          Function<String, String> externalLinks) throws URISyntaxException {
+    Object event = DocumentEvents.beginLineRender();
+    StringWriter html = new StringWriter();
+    try {
+      render(new HtmlTopicRenderer(html), globalContextMap, externalLinks);
+    } catch (IOException e) {
+      throw new IllegalStateException("StringWriter failed", e);
+    }
+    // Without the line break written at the end of the line
+    String renderedText = html.getBuffer().substring(0, html.getBuffer().length() - 1);
+    DocumentEvents.endLineRender(event, text.length(), renderedText.length());
+    return renderedText;
+  }
 
-    // Skip the first byte (is it default attributes for the line?)
-    index++;
+  /**
+   * Passes the line to a renderer as callbacks for its text, style runs and links.
+   *
+   * @param externalLinks gives the link target for a global context ID that isn't in this document, or null
+   */
+  public void render(TopicRenderer renderer, CaseInsensitiveHashMap<HelpTopic> globalContextMap,
+          Function<String, String> externalLinks) throws IOException {
+    int[] xrefSpans = getXrefSpans();
+    renderer.startLine();
 
-    // Handle text styling attributes
-    while (index < attributes.length) {
+    // Skip the first byte (is it default attributes for the line?)
+    int index = 1;
+    int textIndex = 0;
+    while (index + 1 < attributes.length) {
       int style = attributes[index++] & 0xff;
-
       if (style == 0xff) {
         // Found start of xref data
         break;
       }
+      int runEnd = Math.min(text.length(), textIndex + (attributes[index++] & 0xff));
+      renderRun(renderer, textIndex, runEnd, style & (TopicRenderer.BOLD | TopicRenderer.ITALIC
+              | TopicRenderer.UNDERLINE), xrefSpans, globalContextMap, externalLinks);
+      textIndex = runEnd;
+    }
 
-      if ((style & 0x01) != 0) {
-        html.append("<b>");
-        shift += 3;
-      }
-      if ((style & 0x02) != 0) {
-        html.append("<i>");
-        shift += 3;
+    // Handle trailing unstyled text
+    renderRun(renderer, textIndex, text.length(), 0, xrefSpans, globalContextMap, externalLinks);
+    renderer.endLine();
+  }
+
+  /**
+   * Returns the text spans of the line's xrefs as zero-based start and end pairs, each followed by the index of the
+   * xref's data in the attributes, in order of start. Returns an empty array for a line without xrefs.
+   */
+  private int[] getXrefSpans() {
+    int index = getXrefDataStart();
+    if (index >= attributes.length) {
+      return NO_XREF_SPANS;
+    }
+    int[] spans = new int[3 * 4];
+    int count = 0;
+    while (index + 2 < attributes.length) {
+      int start = (attributes[index] & 0xff) - 1;
+      int end = Math.min(text.length(), attributes[index + 1] & 0xff);
+      if (count == spans.length) {
+        spans = Arrays.copyOf(spans, spans.length * 2);
       }
-      if ((style & 0x04) != 0) {
-        html.append("<u>");
-        shift += 3;
+      if (start >= 0 && start < end) {
+        // Keep the spans sorted by start; there are seldom more than a few
+        int insert = count;
+        while (insert > 0 && spans[insert - 3] > start) {
+          insert -= 3;
+        }
+        System.arraycopy(spans, insert, spans, insert + 3, count - insert);
+        spans[insert] = start;
+        spans[insert + 1] = end;
+        spans[insert + 2] = index;
+        count += 3;
       }
 
-      int runLength = attributes[index++];
-      while (runLength-- > 0) {
-        charShifts[textIndex] = shift;
-        html.append(safeCharAt(text, textIndex++));
+      // Skip to the next xref: a nul-terminated global context ID, or a zero byte and a two byte local context ID
+      index += 2;
+      if (attributes[index] != 0) {
+        while (index < attributes.length && attributes[index] != 0) {
+          index++;
+        }
+        index++;
+      } else {
+        index += 3;
       }
+    }
+    return Arrays.copyOf(spans, count);
+  }
 
-      if ((style & 0x04) != 0) {
-        html.append("</u>");
-        shift += 4;
-      }
-      if ((style & 0x02) != 0) {
-        html.append("</i>");
-        shift += 4;
+  private void renderRun(TopicRenderer renderer, int start, int end, int style, int[] xrefSpans,
+          CaseInsensitiveHashMap<HelpTopic> globalContextMap, Function<String, String> externalLinks)
+          throws IOException {
+    if (start >= end) {
+      return;
+    }
+    if (style != 0) {
+      renderer.startStyle(style);
+    }
+    int textIndex = start;
+    for (int span = 0; span < xrefSpans.length && xrefSpans[span] < end; span += 3) {
+      int linkStart = Math.max(textIndex, xrefSpans[span]);
+      int linkEnd = Math.min(end, xrefSpans[span + 1]);
+      if (linkStart >= linkEnd) {
+        continue;
       }
-      if ((style & 0x01) != 0) {
-        html.append("</b>");
-        shift += 4;
+      if (textIndex < linkStart) {
+        renderer.text(text, textIndex, linkStart);
       }
+      startLink(renderer, xrefSpans[span + 2], globalContextMap, externalLinks);
+      renderer.text(text, linkStart, linkEnd);
+      renderer.endLink();
+      textIndex = linkEnd;
     }
-
-    // Handle trailing unstyled text
-    while (textIndex < text.length()) {
-      charShifts[textIndex] = shift;
-      html.append(safeCharAt(text, textIndex++));
+    if (textIndex < end) {
+      renderer.text(text, textIndex, end);
     }
-
-    while (index < attributes.length) {
-      int xrefStart = attributes[index++] & 0xff;
-      int xrefEnd = attributes[index++] & 0xff;
-      int xref = attributes[index++] & 0xff;
-
-      html.append("<!-- xref @ ");
-      html.append(xrefStart);
-      html.append(':');
-      html.append(xrefEnd);
-
-      String target = "";
-      if (xref != 0) {
-        html.append(" to global ");
-        do {
-          html.append((char) xref);
-          target += (char) xref;
-          xref = attributes[index++] & 0xff;
-        } while (xref != 0);
-        HelpTopic destinationTopic = globalContextMap.get(target);
-        if (destinationTopic != null) {
-          target = new URI(null, null, "TOPIC_" + destinationTopic.getLocalContextId() + ".HTML", target).toString();
-        } else {
-          System.err.println("Link references missing global context ID " + target);
-          target = new URI(null, null, null, target).toString();
-          html.append(" (missing!)");
-        }
-      } else {
-        html.append(" to local ");
-        xref = (attributes[index++] & 0xff);
-        xref |= (attributes[index++] & 0xff) << 8;
-        html.append(xref);
-        target = new URI(null, null, "TOPIC_" + xref + ".HTML", Integer.toString(xref)).toString();
-      }
-
-      String linkStart = "<a href='" + target + "'>";
-      String linkEnd = "</a>";
-      html.insert(xrefStart + charShifts[xrefStart] - 1, linkStart);
-      increaseShifts(charShifts, xrefStart, linkStart.length());
-      html.insert(xrefEnd + charShifts[xrefEnd], linkEnd);
-      increaseShifts(charShifts, xrefEnd, linkEnd.length());
-
-      html.append(" -->");
+    if (style != 0) {
+      renderer.endStyle();
     }
-
-    return html.toString();
   }
 
-  private void increaseShifts(int[] charShifts, int offset, int increase) {
-    for (int i = offset; i < charShifts.length; i++) {
-      charShifts[i] += increase;
+  private void startLink(TopicRenderer renderer, int xrefIndex, CaseInsensitiveHashMap<HelpTopic> globalContextMap,
+          Function<String, String> externalLinks) throws IOException {
+    int index = xrefIndex + 2;
+    if (attributes[index] == 0) {
+      renderer.startLink((attributes[index + 1] & 0xff) | ((attributes[index + 2] & 0xff) << 8), null, null);
+      return;
+    }
+
+    StringBuilder target = new StringBuilder();
+    while (index < attributes.length && attributes[index] != 0) {
+      target.append((char) (attributes[index++] & 0xff));
+    }
+    String globalContextId = target.toString();
+    HelpTopic destinationTopic = globalContextMap.get(globalContextId);
+    if (destinationTopic != null) {
+      renderer.startLink((int) destinationTopic.getLocalContextId(), globalContextId, null);
+      return;
+    }
+    String externalTarget = externalLinks.apply(globalContextId);
+    if (externalTarget == null) {
+      System.err.println("Link references missing global context ID " + globalContextId);
     }
+    renderer.startLink(-1, globalContextId, externalTarget);
   }
 }
@@ -1,44 +1,431 @@
 package uk.me.philipsearle.advisor;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 public class HtmlTopicExtractor {
 
   public static void main(String[] args) throws URISyntaxException, IOException {
-    if (args.length != 2) {
-      System.err.printf("Usage:\n\n\tjava -jar %s [hlpfile] [outputdir]\n", getRunningJarFile());
-      System.exit(1);
+    if (args.length == 2 && args[0].equals("links")) {
+      AdvisorDocumentLoader documentLoader = new AdvisorDocumentLoader(Charset.forName("CP850"));
+      AdvisorDocument advisorDocument = documentLoader.loadDocument(new File(args[1]));
+      outputLinkReport(advisorDocument, LinkGraph.build(advisorDocument), System.out);
+      return;
     }
 
-    File inputFile = new File(args[0]);
-    File outputDirectory = new File(args[1]);
+    if (args.length == 2 && args[0].equals("footprint")) {
+      outputFootprintReport(new File(args[1]), System.out);
+      return;
+    }
+
+    if (args.length == 2 && args[0].equals("merge-shards")) {
+      if (!ShardedExporter.mergeManifests(new File(args[1]), System.out)) {
+        System.exit(2);
+      }
+      return;
+    }
+
+    if (args.length >= 1 && args[0].equals("batch")) {
+      CommandLineOptions options = new CommandLineOptions(args, "--threads", "--max-in-flight");
+      if (options.getPositional().size() != 3) {
+        printUsageAndExit();
+      }
+      int threads = options.getInt("--threads", Runtime.getRuntime().availableProcessors());
+      BatchExporter batchExporter = new BatchExporter(Charset.forName("CP850"), threads,
+              options.getInt("--max-in-flight", threads), useVirtualThreads(options));
+      try {
+        boolean succeeded = batchExporter.export(Paths.get(options.getPositional().get(1)),
+                Paths.get(options.getPositional().get(2)), System.out);
+        if (!succeeded) {
+          System.exit(2);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted during batch export", e);
+      }
+      return;
+    }
+
+    if (args.length >= 1 && args[0].equals("bench")) {
+      CommandLineOptions options = new CommandLineOptions(args, "--warmup", "--iterations");
+      if (options.getPositional().size() != 2) {
+        printUsageAndExit();
+      }
+      DecodeBenchmark benchmark = new DecodeBenchmark(new File(options.getPositional().get(1)),
+              Charset.forName("CP850"), options.getInt("--warmup", 5), options.getInt("--iterations", 10),
+              options.hasFlag("--render"));
+      benchmark.run();
+      benchmark.outputJson(System.out);
+      return;
+    }
+
+    if (args.length >= 1 && args[0].equals("thread-bench")) {
+      CommandLineOptions options = new CommandLineOptions(args, "--iterations", "--threads", "--max-in-flight");
+      if (options.getPositional().size() != 3) {
+        printUsageAndExit();
+      }
+      int threads = options.getInt("--threads", Runtime.getRuntime().availableProcessors());
+      ThreadModelBenchmark benchmark = new ThreadModelBenchmark(Charset.forName("CP850"),
+              Paths.get(options.getPositional().get(1)), Paths.get(options.getPositional().get(2)), threads,
+              options.getInt("--max-in-flight", threads), options.getInt("--iterations", 5));
+      try {
+        benchmark.run(System.out);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted during benchmark", e);
+      }
+      return;
+    }
+
+    if (args.length >= 1 && args[0].equals("show")) {
+      CommandLineOptions options = new CommandLineOptions(args, "--format", "--cache-bytes");
+      if (options.getPositional().size() != 3) {
+        printUsageAndExit();
+      }
+      TopicRenderer.Factory format = TopicRenderers.forName(options.hasValue("--format")
+              ? options.getValue("--format") : "text");
+      try (DocumentRegistry registry = new DocumentRegistry(Charset.forName("CP850"), 64L << 20,
+              options.getInt("--cache-bytes", 16 << 20), 60_000)) {
+        OnDemandAdvisorDocument advisorDocument = registry.open(new File(options.getPositional().get(1)));
+        TopicSelection selection = new TopicSelection(advisorDocument);
+        selection.addContextIds(options.getPositional().get(2));
+        BitSet topics = selection.getSelectedTopics();
+        for (int topic = topics.nextSetBit(0); topic >= 0; topic = topics.nextSetBit(topic + 1)) {
+          System.out.write(registry.render(advisorDocument, topic, format));
+        }
+        System.out.flush();
+        if (options.hasFlag("--stats")) {
+          registry.outputStatistics(System.err);
+        }
+      }
+      return;
+    }
+
+    if (args.length >= 1 && args[0].equals("goto")) {
+      CommandLineOptions options = new CommandLineOptions(args, "--limit", "--distance");
+      if (options.getPositional().size() != 3) {
+        printUsageAndExit();
+      }
+      try (OnDemandAdvisorDocument advisorDocument = new AdvisorDocumentLoader(Charset.forName("CP850"))
+              .openDocument(new File(options.getPositional().get(1)))) {
+        outputContextIdMatches(advisorDocument.getContextIdIndex(), options.getPositional().get(2),
+                options.getInt("--limit", 10), options.getInt("--distance", 2), System.out);
+      }
+      return;
+    }
+
+    if (args.length >= 1 && args[0].equals("search")) {
+      CommandLineOptions options = new CommandLineOptions(args, "--patterns", "--max", "--threads");
+      List<String> inputs = options.getPositional().subList(1, options.getPositional().size());
+      List<String> patterns;
+      if (options.hasValue("--patterns")) {
+        patterns = new ArrayList<>();
+        for (String pattern : Files.readAllLines(Paths.get(options.getValue("--patterns")), StandardCharsets.UTF_8)) {
+          if (!pattern.isEmpty()) {
+            patterns.add(pattern);
+          }
+        }
+      } else if (!inputs.isEmpty()) {
+        patterns = Collections.singletonList(inputs.get(0));
+        inputs = inputs.subList(1, inputs.size());
+      } else {
+        patterns = Collections.emptyList();
+      }
+      if (patterns.isEmpty() || inputs.isEmpty()) {
+        printUsageAndExit();
+      }
+
+      Charset charset = Charset.forName("CP850");
+      boolean ignoreCase = options.hasFlag("--ignore-case");
+      TopicSearcher.Query query;
+      if (options.hasFlag("--regex")) {
+        // Several expressions are searched as alternatives in one pass
+        StringBuilder regex = new StringBuilder();
+        for (String pattern : patterns) {
+          regex.append(regex.length() == 0 ? "" : "|").append("(?:").append(pattern).append(')');
+        }
+        query = TopicSearcher.regex(charset, regex.toString(), ignoreCase);
+      } else {
+        query = TopicSearcher.literals(charset, patterns, ignoreCase);
+      }
+
+      List<File> documentFiles = new ArrayList<>();
+      for (String input : inputs) {
+        if (new File(input).isDirectory()) {
+          BatchExporter.findDocuments(Paths.get(input)).forEach(path -> documentFiles.add(path.toFile()));
+        } else {
+          documentFiles.add(new File(input));
+        }
+      }
+      long hits = TopicSearcher.searchFiles(documentFiles, query, options.getInt("--max", Integer.MAX_VALUE),
+              options.getInt("--threads", Runtime.getRuntime().availableProcessors()), System.out, System.err);
+      // Like grep, exit with 1 when nothing matched
+      if (hits == 0) {
+        System.exit(1);
+      }
+      return;
+    }
+
+    if (args.length >= 2 && args[0].equals("dedup")) {
+      TopicStore topicStore = new TopicStore();
+      AdvisorDocumentLoader documentLoader = new AdvisorDocumentLoader(Charset.forName("CP850"), topicStore);
+      List<AdvisorDocument> documents = new ArrayList<>();
+      for (String input : Arrays.asList(args).subList(1, args.length)) {
+        if (new File(input).isDirectory()) {
+          for (Path path : BatchExporter.findDocuments(Paths.get(input))) {
+            documents.add(documentLoader.loadDocument(path.toFile()));
+          }
+        } else {
+          documents.add(documentLoader.loadDocument(new File(input)));
+        }
+      }
+      System.out.printf("Documents: %d\n", documents.size());
+      topicStore.outputStatistics(System.out);
+      return;
+    }
+
+    if (args.length >= 1 && args[0].equals("generate")) {
+      CommandLineOptions options = new CommandLineOptions(args, "--topics", "--min-lines", "--max-lines",
+              "--line-length", "--style-density", "--local-xref-density", "--global-xref-density", "--global-ids",
+              "--seed");
+      if (options.getPositional().size() != 2) {
+        printUsageAndExit();
+      }
+      SyntheticDocumentGenerator.Settings settings = new SyntheticDocumentGenerator.Settings();
+      settings.topicCount = options.getInt("--topics", settings.topicCount);
+      settings.minLines = options.getInt("--min-lines", settings.minLines);
+      settings.maxLines = options.getInt("--max-lines", settings.maxLines);
+      settings.lineLength = options.getInt("--line-length", settings.lineLength);
+      settings.styleDensity = options.getDouble("--style-density", settings.styleDensity);
+      settings.localXrefDensity = options.getDouble("--local-xref-density", settings.localXrefDensity);
+      settings.globalXrefDensity = options.getDouble("--global-xref-density", settings.globalXrefDensity);
+      settings.globalIdFraction = options.getDouble("--global-ids", settings.globalIdFraction);
+      settings.seed = options.getInt("--seed", (int) settings.seed);
+      settings.keywordTable = !options.hasFlag("--no-keywords");
+      settings.runLengthEncoding = !options.hasFlag("--no-rle");
+      settings.huffmanCoding = !options.hasFlag("--no-huffman");
+
+      File outputFile = new File(options.getPositional().get(1));
+      long start = System.nanoTime();
+      new SyntheticDocumentGenerator(Charset.forName("CP850"), settings).write(outputFile);
+      System.out.printf("Wrote %d topics, %d bytes to %s in %d ms\n", settings.topicCount, outputFile.length(),
+              outputFile, (System.nanoTime() - start) / 1_000_000);
+      return;
+    }
+
+    if (args.length >= 1 && args[0].equals("compile")) {
+      CommandLineOptions options = new CommandLineOptions(args, "--phrases", "--threads", "--optimize", "--passes");
+      if (options.getPositional().size() != 3) {
+        printUsageAndExit();
+      }
+      File inputFile = new File(options.getPositional().get(1));
+      File outputFile = new File(options.getPositional().get(2));
+      AdvisorCompiler.PhraseMode phraseMode;
+      try {
+        phraseMode = AdvisorCompiler.PhraseMode.valueOf(options.hasValue("--phrases")
+                ? options.getValue("--phrases").toUpperCase(Locale.UK) : "EXTENDED");
+      } catch (IllegalArgumentException e) {
+        System.err.println("--phrases must be none, words or extended");
+        System.exit(1);
+        return;
+      }
+      String optimize = options.getValue("--optimize");
+      if (optimize != null && !optimize.equals("size") && !optimize.equals("speed")) {
+        System.err.println("--optimize must be size or speed");
+        System.exit(1);
+      }
+
+      AdvisorDocument advisorDocument = new AdvisorDocumentLoader(Charset.forName("CP850")).loadDocument(inputFile);
+      AdvisorCompiler compiler = new AdvisorCompiler(Charset.forName("CP850"),
+              options.getInt("--threads", Runtime.getRuntime().availableProcessors()));
+      AdvisorCompiler.Configuration configuration = new AdvisorCompiler.Configuration(phraseMode,
+              !options.hasFlag("--no-rle"), !options.hasFlag("--no-huffman"));
+      if (options.hasFlag("--compare") || optimize != null) {
+        List<AdvisorCompiler.Result> results = compiler.compare(advisorDocument, AdvisorCompiler.Configuration.all(),
+                options.getInt("--passes", 5));
+        AdvisorCompiler.outputComparison(inputFile.length(), results, System.out);
+        if (optimize != null) {
+          configuration = AdvisorCompiler.choose(results, optimize.equals("speed")).configuration;
+        }
+        System.out.println();
+      }
+      AdvisorCompiler.outputStatistics(compiler.compile(advisorDocument, configuration, outputFile), System.out);
+      return;
+    }
+
+    if (args.length >= 1 && args[0].equals("watch")) {
+      CommandLineOptions options = new CommandLineOptions(args, "--debounce");
+      if (options.getPositional().size() != 3) {
+        printUsageAndExit();
+      }
+      DocumentWatcher watcher = new DocumentWatcher(Charset.forName("CP850"), Paths.get(options.getPositional().get(1)),
+              Paths.get(options.getPositional().get(2)), options.getInt("--debounce", 250), System.out);
+      try {
+        watcher.watch();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return;
+    }
+
+    CommandLineOptions options = new CommandLineOptions(args, "--threads", "--queue", "--shard", "--topics",
+            "--context", "--reachable", "--depth", "--format");
+    if (options.getPositional().size() != 2) {
+      printUsageAndExit();
+    }
+
+    File inputFile = new File(options.getPositional().get(0));
+    File outputDirectory = new File(options.getPositional().get(1));
+    TopicRenderer.Factory format = options.hasValue("--format") ? TopicRenderers.forName(options.getValue("--format"))
+            : TopicRenderers.html();
 
     AdvisorDocumentLoader documentLoader = new AdvisorDocumentLoader(Charset.forName("CP850"));
+    if (options.hasValue("--shard")) {
+      int[] shardSpec = ShardedExporter.parseShardSpec(options.getValue("--shard"));
+      try (OnDemandAdvisorDocument advisorDocument = documentLoader.openDocument(inputFile)) {
+        // The summary doesn't need any topics decoding, so only the first shard writes it
+        if (shardSpec[0] == 1) {
+          outputDocumentSummary(advisorDocument, new File(outputDirectory, "_SUMMARY.TXT"));
+        }
+        ShardedExporter.exportShard(advisorDocument, outputDirectory, shardSpec[0], shardSpec[1], format);
+      }
+      return;
+    }
+
+    if (options.hasValue("--topics") || options.hasValue("--context") || options.hasValue("--reachable")) {
+      try (OnDemandAdvisorDocument advisorDocument = documentLoader.openDocument(inputFile)) {
+        TopicSelection selection = new TopicSelection(advisorDocument);
+        if (options.hasValue("--topics")) {
+          selection.addRanges(options.getValue("--topics"));
+        }
+        if (options.hasValue("--context")) {
+          selection.addContextIds(options.getValue("--context"));
+        }
+        if (options.hasValue("--reachable")) {
+          selection.addReachable(options.getValue("--reachable"), options.getInt("--depth", 1));
+        }
+        exportSelectedTopics(advisorDocument, selection.getSelectedTopics(), outputDirectory, format, System.out);
+      }
+      return;
+    }
+
+    if (useVirtualThreads(options)) {
+      try (OnDemandAdvisorDocument advisorDocument = documentLoader.openDocument(inputFile)) {
+        exportDocumentOnVirtualThreads(advisorDocument, outputDirectory, format, globalContextId -> null);
+        System.out.println("Exported " + advisorDocument.getTopics().size() + " topics");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while exporting " + inputFile, e);
+      }
+      return;
+    }
+
+    if (options.hasFlag("--stream")) {
+      int threads = options.getInt("--threads", Runtime.getRuntime().availableProcessors());
+      try (OnDemandAdvisorDocument advisorDocument = documentLoader.openDocument(inputFile)) {
+        outputDocumentSummary(advisorDocument, new File(outputDirectory, "_SUMMARY.TXT"));
+        StreamingTopicExporter exporter = new StreamingTopicExporter(advisorDocument, outputDirectory, format,
+                threads, Math.max(1, threads / 2), options.getInt("--queue", 64));
+        exporter.export();
+        exporter.outputStatistics(System.out);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while exporting " + inputFile, e);
+      }
+      return;
+    }
+
     AdvisorDocument advisorDocument = documentLoader.loadDocument(inputFile);
 
     outputDocumentSummary(advisorDocument, new File(outputDirectory, "_SUMMARY.TXT"));
     for (HelpTopic topic : advisorDocument.getTopics()) {
       System.out.println("Writing topic " + topic.getLocalContextId());
-      outputTopicHtml(advisorDocument, topic,
-              new File(outputDirectory, "TOPIC_" + topic.getLocalContextId() + ".HTML"));
+      outputTopic(advisorDocument, topic,
+              new File(outputDirectory, "TOPIC_" + topic.getLocalContextId() + "." + format.getFileExtension()), format,
+              globalContextId -> null);
     }
   }
 
+  private static void printUsageAndExit() throws URISyntaxException {
+    System.err.printf("Usage:\n\n\tjava -jar %s [--stream [--threads n] [--queue n]] [hlpfile] [outputdir]\n",
+            getRunningJarFile());
+    System.err.printf("\tjava -jar %s --virtual-threads [hlpfile] [outputdir]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s --shard i/n [hlpfile] [outputdir]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s [--topics n-m,...] [--context id,...] [--reachable id --depth n] [hlpfile] "
+            + "[outputdir]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s [--format html|text|markdown|json|ansi] [hlpfile] [outputdir]\n",
+            getRunningJarFile());
+    System.err.printf("\tjava -jar %s show [--format html|text|markdown|json|ansi] [--cache-bytes n] [--stats]\n"
+            + "\t\t[hlpfile] [contextid,...]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s merge-shards [outputdir]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s batch [--threads n] [--max-in-flight n] [--virtual-threads] [inputdir] "
+            + "[outputdir]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s thread-bench [--iterations n] [--threads n] [--max-in-flight n] [inputdir] "
+            + "[outputdir]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s watch [--debounce ms] [hlpfile|inputdir] [outputdir]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s links [hlpfile]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s footprint [hlpfile]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s generate [--topics n] [--min-lines n] [--max-lines n] [--line-length n]\n"
+            + "\t\t[--style-density f] [--local-xref-density f] [--global-xref-density f] [--global-ids f]\n"
+            + "\t\t[--seed n] [--no-keywords] [--no-rle] [--no-huffman] [hlpfile]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s compile [--phrases none|words|extended] [--no-rle] [--no-huffman] [--threads n]\n"
+            + "\t\t[--compare] [--optimize size|speed] [--passes n] [hlpfile] [outputfile]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s dedup [hlpfile|inputdir...]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s goto [--limit n] [--distance n] [hlpfile] [contextid]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s search [--regex] [--ignore-case] [--max n] [--threads n]\n"
+            + "\t\t[pattern | --patterns file] [hlpfile|inputdir...]\n", getRunningJarFile());
+    System.err.printf("\tjava -jar %s bench [--warmup n] [--iterations n] [--render] [hlpfile]\n",
+            getRunningJarFile());
+    System.exit(1);
+  }
+
+  /**
+   * Returns whether {@code --virtual-threads} was given and virtual threads are available, warning if they aren't.
+   */
+  private static boolean useVirtualThreads(CommandLineOptions options) {
+    if (!options.hasFlag("--virtual-threads")) {
+      return false;
+    }
+    if (!VirtualThreads.isAvailable()) {
+      System.err.println("Warning: virtual threads need Java 21 or later; using platform threads instead");
+      return false;
+    }
+    return true;
+  }
+
   private static String getRunningJarFile() throws URISyntaxException {
     CodeSource codeSource = HtmlTopicExtractor.class.getProtectionDomain().getCodeSource();
     File jarFile = new File(codeSource.getLocation().toURI().getPath());
     return jarFile.getParentFile().getPath();
   }
 
-  private static void outputDocumentSummary(AdvisorDocument advisorDocument, File summaryFile) {
+  static void outputDocumentSummary(AdvisorDocument advisorDocument, File summaryFile) {
     try (PrintWriter out = new PrintWriter(summaryFile, StandardCharsets.UTF_8.name())) {
       out.printf("Original name        : %s\n", advisorDocument.getOriginalName());
       out.printf("Max display width    : %d characters\n", advisorDocument.getMaxDisplayWidth());
@@ -57,23 +444,191 @@ public class HtmlTopicExtractor {
     }
   }
 
-  static void outputTopicHtml(AdvisorDocument document, HelpTopic topic, File topicFile) throws URISyntaxException {
-    try (PrintWriter out = new PrintWriter(topicFile, StandardCharsets.UTF_8.name())) {
-      out.println("<!doctype html>");
-      out.println("<html>");
-      out.println("<head>");
-      out.println("<meta charset='utf8'>");
-      out.print("<title>");
-      out.printf("Topic %d - %s", topic.getLocalContextId(), document.getOriginalName());
-      out.println("</title>");
-      out.println("</head>");
-      out.println("<body><pre>");
-      for (HelpTopicLine line : topic.getText()) {
-        out.println(line.getHtmlFormattedText(document.getGlobalContextMap()));
+  private static void outputLinkReport(AdvisorDocument advisorDocument, LinkGraph linkGraph, PrintStream out) {
+    out.printf("Original name        : %s\n", advisorDocument.getOriginalName());
+    out.printf("Topic count          : %d\n", linkGraph.getTopicCount());
+    out.printf("Distinct links       : %d\n", linkGraph.getLinkCount());
+    out.printf("Broken links         : %d\n", linkGraph.getBrokenLinks().size());
+    int[] unreachableTopics = linkGraph.getUnreachableTopics();
+    out.printf("Unreachable topics   : %d\n\n", unreachableTopics.length);
+
+    out.printf("Broken links:\n\n");
+    out.printf("localId  target\n");
+    for (LinkGraph.BrokenLink brokenLink : linkGraph.getBrokenLinks()) {
+      out.printf("%8d %s %s\n", brokenLink.sourceTopic, brokenLink.global ? "global" : "local ", brokenLink.target);
+    }
+
+    out.printf("\nUnreachable topics:\n\n");
+    for (int topic : unreachableTopics) {
+      out.printf("%8d\n", topic);
+    }
+
+    out.printf("\nLinks per topic:\n\n");
+    out.printf("localId    links backlinks\n");
+    for (int topic = 0; topic < linkGraph.getTopicCount(); topic++) {
+      out.printf("%8d %8d %8d\n", topic, linkGraph.getLinkCount(topic), linkGraph.getBacklinkCount(topic));
+    }
+  }
+
+  /**
+   * Lists the global context IDs starting with what was typed, or if there are none, the IDs it may be a mistyping of.
+   */
+  private static void outputContextIdMatches(ContextIdIndex index, String typed, int limit, int maxDistance,
+          PrintStream out) {
+    List<ContextIdIndex.Match> matches = index.complete(typed, limit);
+    if (!matches.isEmpty()) {
+      out.printf("%d of %d IDs starting with '%s':\n\n", matches.size(), index.countCompletions(typed), typed);
+    } else {
+      matches = index.suggest(typed, maxDistance, limit);
+      out.printf("No IDs start with '%s'. Did you mean:\n\n", typed);
+    }
+    out.printf("localId distance  globalContextId\n");
+    for (ContextIdIndex.Match match : matches) {
+      out.printf("%7d %8d  %s\n", match.localContextId, match.distance, match.contextId);
+    }
+  }
+
+  /**
+   * Compares the heap used by a fully decoded document with a compressed-resident one, along with the time taken to
+   * access every topic of each. Heap figures are measured after requesting garbage collection, so are approximate.
+   */
+  private static void outputFootprintReport(File inputFile, PrintStream out) throws IOException {
+    final int passes = 20;
+    AdvisorDocumentLoader documentLoader = new AdvisorDocumentLoader(Charset.forName("CP850"));
+
+    // Both documents stay reachable until the end so that neither is collected during the other's measurement
+    long baseline = getUsedHeapAfterGc();
+    CompressedResidentAdvisorDocument compressedDocument = documentLoader.loadCompressedDocument(inputFile);
+    long compressedHeap = getUsedHeapAfterGc() - baseline;
+    long compressedNanos = timeTopicAccess(compressedDocument, passes);
+
+    baseline = getUsedHeapAfterGc();
+    AdvisorDocument decodedDocument = documentLoader.loadDocument(inputFile);
+    long decodedHeap = getUsedHeapAfterGc() - baseline;
+    long decodedNanos = timeTopicAccess(decodedDocument, passes);
+
+    int topicCount = decodedDocument.getTopics().size();
+    out.printf("Original name           : %s\n", compressedDocument.getOriginalName());
+    out.printf("File size               : %d bytes\n", inputFile.length());
+    out.printf("Topic count             : %d\n", topicCount);
+    out.printf("Compressed topic text   : %d bytes\n\n", compressedDocument.getResidentBytes());
+    out.printf("mode                heap bytes  access ns/topic\n");
+    out.printf("fully decoded     %12d %16d\n", decodedHeap, decodedNanos / passes / Math.max(1, topicCount));
+    out.printf("compressed        %12d %16d\n", compressedHeap, compressedNanos / passes / Math.max(1, topicCount));
+  }
+
+  private static long getUsedHeapAfterGc() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /** Returns the total time taken to access the text of every topic, over several passes after one warm-up pass. */
+  private static long timeTopicAccess(AdvisorDocument document, int passes) {
+    long start = 0;
+    for (int pass = -1; pass < passes; pass++) {
+      if (pass == 0) {
+        start = System.nanoTime();
       }
-      out.println("</pre></body>");
-      out.println("</html>");
-    } catch (FileNotFoundException | UnsupportedEncodingException e) {
+      for (HelpTopic topic : document.getTopics()) {
+        topic.getText();
+      }
+    }
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * Writes the summary and every topic of a document, rendering topics in parallel.
+   */
+  static void exportDocument(AdvisorDocument document, File outputDirectory) {
+    exportDocument(document, outputDirectory, globalContextId -> null);
+  }
+
+  /**
+   * @param externalLinks gives the link target for a global context ID that isn't in the document, or null
+   */
+  static void exportDocument(AdvisorDocument document, File outputDirectory, Function<String, String> externalLinks) {
+    outputDocumentSummary(document, new File(outputDirectory, "_SUMMARY.TXT"));
+    document.topics().parallel().forEach(topic -> outputTopicHtml(document, topic,
+            new File(outputDirectory, "TOPIC_" + topic.getLocalContextId() + ".HTML"), externalLinks));
+  }
+
+  /**
+   * Writes the summary and every topic of a document, starting a virtual thread for each topic. Reading, decoding and
+   * writing a topic blocks only its own thread, so an on-demand document's topics are read and written concurrently
+   * without a pool to size. Only call this if {@link VirtualThreads#isAvailable()}.
+   */
+  static void exportDocumentOnVirtualThreads(AdvisorDocument document, File outputDirectory,
+          TopicRenderer.Factory format, Function<String, String> externalLinks)
+          throws IOException, InterruptedException {
+    outputDocumentSummary(document, new File(outputDirectory, "_SUMMARY.TXT"));
+    ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("export-topic");
+    try {
+      List<Future<?>> exports = new ArrayList<>();
+      for (int topic = 0; topic < document.getTopics().size(); topic++) {
+        int localContextId = topic;
+        exports.add(executor.submit(() -> {
+          outputTopic(document, document.getTopics().get(localContextId),
+                  new File(outputDirectory, "TOPIC_" + localContextId + "." + format.getFileExtension()), format,
+                  externalLinks);
+          return null;
+        }));
+      }
+
+      // Wait for every topic, giving up on the rest as soon as any one fails
+      for (Future<?> export : exports) {
+        try {
+          export.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) e.getCause()).getCause();
+          }
+          throw new RuntimeException("Export of " + document.getOriginalName() + " failed", e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Writes the summary and the chosen topics of a document, then reports how much of the file had to be read.
+   */
+  private static void exportSelectedTopics(OnDemandAdvisorDocument document, BitSet topics, File outputDirectory,
+          TopicRenderer.Factory format, PrintStream out) {
+    outputDocumentSummary(document, new File(outputDirectory, "_SUMMARY.TXT"));
+    for (int topic = topics.nextSetBit(0); topic >= 0; topic = topics.nextSetBit(topic + 1)) {
+      out.println("Writing topic " + topic);
+      outputTopic(document, document.getTopics().get(topic),
+              new File(outputDirectory, "TOPIC_" + topic + "." + format.getFileExtension()), format,
+              globalContextId -> null);
+    }
+    long fileLength = document.getFileLength();
+    out.printf("Exported %d of %d topics\n", topics.cardinality(), document.getTopics().size());
+    out.printf(Locale.ROOT, "Read %d of %d bytes (%.1f%%)\n", document.getBytesRead(), fileLength,
+            fileLength == 0 ? 0.0 : 100.0 * document.getBytesRead() / fileLength);
+  }
+
+  static void outputTopicHtml(AdvisorDocument document, HelpTopic topic, File topicFile) {
+    outputTopicHtml(document, topic, topicFile, globalContextId -> null);
+  }
+
+  static void outputTopicHtml(AdvisorDocument document, HelpTopic topic, File topicFile,
+          Function<String, String> externalLinks) {
+    outputTopic(document, topic, topicFile, TopicRenderers.html(), externalLinks);
+  }
+
+  /**
+   * Writes a topic to a file in the given format, encoded as UTF-8.
+   */
+  static void outputTopic(AdvisorDocument document, HelpTopic topic, File topicFile, TopicRenderer.Factory format,
+          Function<String, String> externalLinks) {
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(topicFile),
+            StandardCharsets.UTF_8))) {
+      TopicRenderers.render(document, topic, format.newRenderer(out), externalLinks);
+    } catch (IOException e) {
       throw new RuntimeException("Failed to write topic " + topic.getLocalContextId(), e);
     }
   }
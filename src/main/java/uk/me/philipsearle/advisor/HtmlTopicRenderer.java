@@ -0,0 +1,143 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Writes a topic as an HTML page with the text preformatted, styles as {@code <b>}, {@code <i>} and {@code <u>}, and
+ * links to the other topics' pages.
+ */
+class HtmlTopicRenderer implements TopicRenderer {
+  static final TopicRenderer.Factory FACTORY = new TopicRenderer.Factory() {
+    @Override
+    public String getName() {
+      return "html";
+    }
+
+    @Override
+    public String getFileExtension() {
+      return "HTML";
+    }
+
+    @Override
+    public TopicRenderer newRenderer(Writer out) {
+      return new HtmlTopicRenderer(out);
+    }
+  };
+
+  private final Writer out;
+  private int style;
+
+  HtmlTopicRenderer(Writer out) {
+    this.out = out;
+  }
+
+  @Override
+  public void startTopic(String documentName, int localContextId) throws IOException {
+    out.write("<!doctype html>\n");
+    out.write("<html>\n");
+    out.write("<head>\n");
+    out.write("<meta charset='utf8'>\n");
+    out.write("<title>");
+    writeEscaped("Topic " + localContextId + " - " + documentName, 0, -1);
+    out.write("</title>\n");
+    out.write("</head>\n");
+    out.write("<body><pre>\n");
+  }
+
+  @Override
+  public void text(String text, int start, int end) throws IOException {
+    writeEscaped(text, start, end);
+  }
+
+  private void writeEscaped(String text, int start, int end) throws IOException {
+    if (end < 0) {
+      end = text.length();
+    }
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '<':
+          out.write("&lt;");
+          break;
+        case '>':
+          out.write("&gt;");
+          break;
+        case '&':
+          out.write("&amp;");
+          break;
+        case '\'':
+          out.write("&#39;");
+          break;
+        default:
+          out.write(c);
+      }
+    }
+  }
+
+  @Override
+  public void startStyle(int style) throws IOException {
+    this.style = style;
+    if ((style & BOLD) != 0) {
+      out.write("<b>");
+    }
+    if ((style & ITALIC) != 0) {
+      out.write("<i>");
+    }
+    if ((style & UNDERLINE) != 0) {
+      out.write("<u>");
+    }
+  }
+
+  @Override
+  public void endStyle() throws IOException {
+    if ((style & UNDERLINE) != 0) {
+      out.write("</u>");
+    }
+    if ((style & ITALIC) != 0) {
+      out.write("</i>");
+    }
+    if ((style & BOLD) != 0) {
+      out.write("</b>");
+    }
+    style = 0;
+  }
+
+  @Override
+  public void startLink(int localContextId, String globalContextId, String externalTarget) throws IOException {
+    String target;
+    try {
+      if (externalTarget != null) {
+        target = externalTarget;
+      } else if (localContextId >= 0) {
+        target = new URI(null, null, "TOPIC_" + localContextId + ".HTML",
+                globalContextId != null ? globalContextId : Integer.toString(localContextId)).toString();
+      } else {
+        target = new URI(null, null, null, globalContextId).toString();
+      }
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException("Bad link to " + globalContextId, e);
+    }
+    out.write("<a href='");
+    writeEscaped(target, 0, -1);
+    out.write("'>");
+  }
+
+  @Override
+  public void endLink() throws IOException {
+    out.write("</a>");
+  }
+
+  @Override
+  public void endLine() throws IOException {
+    out.write('\n');
+  }
+
+  @Override
+  public void endTopic() throws IOException {
+    out.write("</pre></body>\n");
+    out.write("</html>\n");
+  }
+}
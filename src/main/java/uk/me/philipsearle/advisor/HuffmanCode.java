@@ -0,0 +1,124 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A Huffman code over byte values, built from symbol frequencies, in the table layout read by
+ * {@link CompresedTopicIterator}. Each table entry is either a leaf ({@code 0x8000} plus the byte value) or a node
+ * whose child for a one bit immediately follows it and whose child for a zero bit is at the entry's value shifted
+ * right by one. Bits are packed most significant first.
+ */
+class HuffmanCode {
+  private static class Node {
+    final long frequency;
+    final int order;
+    final int symbol;
+    final Node zero, one;
+
+    Node(long frequency, int order, int symbol, Node zero, Node one) {
+      this.frequency = frequency;
+      this.order = order;
+      this.symbol = symbol;
+      this.zero = zero;
+      this.one = one;
+    }
+  }
+
+  private final List<Integer> table = new ArrayList<>();
+
+  /** Code bits and lengths, indexed by byte value. Symbols that never occur have a length of zero. */
+  private final long[] codes = new long[256];
+  private final int[] codeLengths = new int[256];
+
+  /**
+   * @param frequencies the number of occurrences of each byte value; at least one must be non-zero
+   */
+  HuffmanCode(long[] frequencies) {
+    // Ties are broken by creation order so the same frequencies always give the same table
+    PriorityQueue<Node> queue = new PriorityQueue<>((a, b) -> a.frequency != b.frequency
+            ? Long.compare(a.frequency, b.frequency)
+            : Integer.compare(a.order, b.order));
+    int order = 0;
+    for (int symbol = 0; symbol < 256; symbol++) {
+      if (frequencies[symbol] > 0) {
+        queue.add(new Node(frequencies[symbol], order++, symbol, null, null));
+      }
+    }
+    if (queue.isEmpty()) {
+      throw new IllegalArgumentException("Can't build a Huffman code without any symbols");
+    }
+    // The root has to be a node, so a single symbol is paired with an unused one
+    if (queue.size() == 1) {
+      queue.add(new Node(0, order++, queue.peek().symbol == 0 ? 1 : 0, null, null));
+    }
+    while (queue.size() > 1) {
+      Node zero = queue.poll();
+      Node one = queue.poll();
+      queue.add(new Node(zero.frequency + one.frequency, order++, -1, zero, one));
+    }
+    layOut(queue.poll(), 0, 0);
+  }
+
+  private void layOut(Node node, long code, int codeLength) {
+    int index = table.size();
+    table.add(0);
+    if (node.zero == null) {
+      table.set(index, 0x8000 | node.symbol);
+      codes[node.symbol] = code;
+      codeLengths[node.symbol] = codeLength;
+      return;
+    }
+    layOut(node.one, (code << 1) | 1, codeLength + 1);
+    table.set(index, table.size() << 1);
+    layOut(node.zero, code << 1, codeLength + 1);
+  }
+
+  /** Counts the byte values in a buffer, adding to any existing counts. */
+  static void countSymbols(byte[] symbols, long[] frequencies) {
+    for (byte symbol : symbols) {
+      frequencies[symbol & 0xff]++;
+    }
+  }
+
+  /** Returns the table as stored in the file, without the terminating zero. */
+  List<Integer> getTable() {
+    return Collections.unmodifiableList(table);
+  }
+
+  /** Returns the number of bits in the code for a byte value, or zero if it has no code. */
+  int getCodeLength(int symbol) {
+    return codeLengths[symbol];
+  }
+
+  /**
+   * Appends the codes for a buffer of byte values, padding the last byte with zero bits.
+   *
+   * @throws IllegalArgumentException if a byte value has no code
+   */
+  void encode(byte[] symbols, ByteArrayOutputStream out) {
+    long bits = 0;
+    int bitCount = 0;
+    for (byte b : symbols) {
+      int symbol = b & 0xff;
+      int codeLength = codeLengths[symbol];
+      if (codeLength == 0) {
+        throw new IllegalArgumentException("No Huffman code for byte " + symbol);
+      }
+      for (int bit = codeLength - 1; bit >= 0; bit--) {
+        bits = (bits << 1) | ((codes[symbol] >>> bit) & 1);
+        if (++bitCount == 8) {
+          out.write((int) bits);
+          bits = 0;
+          bitCount = 0;
+        }
+      }
+    }
+    if (bitCount > 0) {
+      out.write((int) (bits << (8 - bitCount)));
+    }
+  }
+}
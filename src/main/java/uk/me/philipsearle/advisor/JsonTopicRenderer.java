@@ -0,0 +1,189 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes a topic as a JSON object, one line of the topic per line of output:
+ *
+ * <pre>
+ * {"document": "QBASIC.HLP", "topic": 12, "lines": [
+ *   {"text": "...", "styles": [{"start": 0, "end": 5, "style": ["bold"]}],
+ *    "links": [{"start": 7, "end": 12, "topic": 40, "contextId": "abs"}]},
+ *   ...
+ * ]}
+ * </pre>
+ *
+ * Positions are zero-based character indices into the line's text, with the end exclusive. A link has a {@code topic}
+ * if it leads to a topic in the same document, a {@code contextId} if it was made by global context ID and an
+ * {@code externalTarget} if it leads to another document. A link that crosses a change of style is reported once.
+ */
+class JsonTopicRenderer implements TopicRenderer {
+  static final TopicRenderer.Factory FACTORY = new TopicRenderer.Factory() {
+    @Override
+    public String getName() {
+      return "json";
+    }
+
+    @Override
+    public String getFileExtension() {
+      return "json";
+    }
+
+    @Override
+    public TopicRenderer newRenderer(Writer out) {
+      return new JsonTopicRenderer(out);
+    }
+  };
+
+  private final Writer out;
+
+  // The line being rendered
+  private final StringBuilder text = new StringBuilder();
+  private final StringBuilder styles = new StringBuilder();
+  private final StringBuilder links = new StringBuilder();
+  private int styleStart;
+  private int style;
+  private int linkStart;
+  private int lineCount;
+
+  // The last link, which the next link continues if it has the same target and starts where this one ended
+  private int lastLinkEnd = -1;
+  private int lastLinkTopic;
+  private String lastLinkContextId;
+  private String lastLinkExternalTarget;
+  private int linkEndIndex;
+
+  private int linkTopic;
+  private String linkContextId;
+  private String linkExternalTarget;
+
+  JsonTopicRenderer(Writer out) {
+    this.out = out;
+  }
+
+  @Override
+  public void startTopic(String documentName, int localContextId) throws IOException {
+    out.write("{\"document\": ");
+    writeString(out, documentName);
+    out.write(", \"topic\": " + localContextId + ", \"lines\": [");
+    lineCount = 0;
+  }
+
+  @Override
+  public void startLine() {
+    text.setLength(0);
+    styles.setLength(0);
+    links.setLength(0);
+    lastLinkEnd = -1;
+  }
+
+  @Override
+  public void text(String text, int start, int end) {
+    this.text.append(text, start, end);
+  }
+
+  @Override
+  public void startStyle(int style) {
+    this.style = style;
+    styleStart = text.length();
+  }
+
+  @Override
+  public void endStyle() {
+    styles.append(styles.length() == 0 ? "" : ", ").append("{\"start\": ").append(styleStart).append(", \"end\": ")
+            .append(text.length()).append(", \"style\": [");
+    String separator = "";
+    if ((style & BOLD) != 0) {
+      styles.append("\"bold\"");
+      separator = ", ";
+    }
+    if ((style & ITALIC) != 0) {
+      styles.append(separator).append("\"italic\"");
+      separator = ", ";
+    }
+    if ((style & UNDERLINE) != 0) {
+      styles.append(separator).append("\"underline\"");
+    }
+    styles.append("]}");
+  }
+
+  @Override
+  public void startLink(int localContextId, String globalContextId, String externalTarget) {
+    linkStart = text.length();
+    linkTopic = localContextId;
+    linkContextId = globalContextId;
+    linkExternalTarget = externalTarget;
+  }
+
+  @Override
+  public void endLink() {
+    int linkEnd = text.length();
+    if (linkStart == lastLinkEnd && linkTopic == lastLinkTopic && equal(linkContextId, lastLinkContextId)
+            && equal(linkExternalTarget, lastLinkExternalTarget)) {
+      // Continue the previous link, which was cut short by a change of style
+      links.replace(linkEndIndex, linkEndIndex + Integer.toString(lastLinkEnd).length(), Integer.toString(linkEnd));
+    } else {
+      links.append(links.length() == 0 ? "" : ", ").append("{\"start\": ").append(linkStart).append(", \"end\": ");
+      linkEndIndex = links.length();
+      links.append(linkEnd);
+      if (linkTopic >= 0) {
+        links.append(", \"topic\": ").append(linkTopic);
+      }
+      if (linkContextId != null) {
+        links.append(", \"contextId\": ");
+        appendString(links, linkContextId);
+      }
+      if (linkExternalTarget != null) {
+        links.append(", \"externalTarget\": ");
+        appendString(links, linkExternalTarget);
+      }
+      links.append('}');
+    }
+    lastLinkEnd = linkEnd;
+    lastLinkTopic = linkTopic;
+    lastLinkContextId = linkContextId;
+    lastLinkExternalTarget = linkExternalTarget;
+  }
+
+  private static boolean equal(String first, String second) {
+    return first == null ? second == null : first.equals(second);
+  }
+
+  @Override
+  public void endLine() throws IOException {
+    out.write(lineCount++ == 0 ? "\n  {\"text\": " : ",\n  {\"text\": ");
+    writeString(out, text);
+    out.write(", \"styles\": [");
+    out.write(styles.toString());
+    out.write("], \"links\": [");
+    out.write(links.toString());
+    out.write("]}");
+  }
+
+  @Override
+  public void endTopic() throws IOException {
+    out.write("\n]}\n");
+  }
+
+  private static void writeString(Writer out, CharSequence value) throws IOException {
+    StringBuilder quoted = new StringBuilder(value.length() + 2);
+    appendString(quoted, value);
+    out.write(quoted.toString());
+  }
+
+  private static void appendString(StringBuilder out, CharSequence value) {
+    out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c < 0x20) {
+        out.append(String.format("\\u%04x", (int) c));
+      } else {
+        out.append(c);
+      }
+    }
+    out.append('"');
+  }
+}
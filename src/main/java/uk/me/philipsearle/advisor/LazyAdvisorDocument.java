@@ -0,0 +1,146 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Base class for documents that decode topic text only when it is accessed. Topic handles returned from the lookup
+ * methods are cheap and do not cause any decoding until {@link HelpTopic#getText()} is called.
+ */
+abstract class LazyAdvisorDocument implements AdvisorDocument {
+
+  /** A topic handle that decodes its text through the owning document. */
+  class LazyHelpTopic extends HelpTopic {
+    LazyHelpTopic(int localContextId) {
+      super(localContextId, null);
+    }
+
+    @Override
+    public List<HelpTopicLine> getText() {
+      return getTopicText((int) getLocalContextId());
+    }
+  }
+
+  /** The character with which inline application-specific commands are prefixed. */
+  private final char applicationPrefix;
+
+  /** The maximum length of all lines in this document in characters. */
+  private final int maxDisplayWidth;
+
+  /** The 8.3 original filename of this document. */
+  private final String originalName;
+
+  final TopicMap topicMap;
+
+  final TopicDecoder decoder;
+
+  /** Topic handles, indexed by local context ID. */
+  private final List<HelpTopic> topics;
+
+  /** Maps global context IDs to help topic (potentially many per topic). */
+  private final CaseInsensitiveHashMap<HelpTopic> globalContextMap;
+
+  /** Built by {@link #indexGlobalContextIds()} once the loader has filled in the global context map. */
+  private ContextIdIndex contextIdIndex;
+
+  /** Counts topic lookups so that a warm-up profile can be recorded. */
+  private final TopicAccessTracker accessTracker;
+
+  LazyAdvisorDocument(char applicationPrefix, int maxDisplayWidth, String originalName, TopicMap topicMap,
+          TopicDecoder decoder, CaseInsensitiveHashMap<HelpTopic> globalContextMap) {
+    this.applicationPrefix = applicationPrefix;
+    this.maxDisplayWidth = maxDisplayWidth;
+    this.originalName = originalName;
+    this.topicMap = topicMap;
+    this.decoder = decoder;
+    this.globalContextMap = globalContextMap;
+    this.accessTracker = new TopicAccessTracker(topicMap.getTopicCount());
+
+    LazyHelpTopic[] handles = new LazyHelpTopic[topicMap.getTopicCount()];
+    for (int i = 0; i < handles.length; i++) {
+      handles[i] = new LazyHelpTopic(i);
+    }
+    this.topics = new AbstractList<HelpTopic>() {
+      @Override
+      public HelpTopic get(int index) {
+        return handles[index];
+      }
+
+      @Override
+      public int size() {
+        return handles.length;
+      }
+    };
+  }
+
+  @Override
+  public char getApplicationPrefix() {
+    return applicationPrefix;
+  }
+
+  @Override
+  public int getMaxDisplayWidth() {
+    return maxDisplayWidth;
+  }
+
+  @Override
+  public String getOriginalName() {
+    return originalName;
+  }
+
+  @Override
+  public List<HelpTopic> getTopics() {
+    return topics;
+  }
+
+  /**
+   * Decodes each topic as the stream reaches it, yielding topics that hold their decoded text so that processing them
+   * doesn't decode them again.
+   */
+  @Override
+  public Stream<HelpTopic> topics() {
+    return StreamSupport.stream(new TopicSpliterator(topic -> new HelpTopic(topic, getTopicText(topic)),
+            topics.size()), false);
+  }
+
+  @Override
+  public CaseInsensitiveHashMap<HelpTopic> getGlobalContextMap() {
+    return globalContextMap;
+  }
+
+  /** Builds the index of global context IDs. The loader calls this after populating the global context map. */
+  void indexGlobalContextIds() {
+    contextIdIndex = new ContextIdIndex(globalContextMap);
+  }
+
+  @Override
+  public ContextIdIndex getContextIdIndex() {
+    return contextIdIndex;
+  }
+
+  @Override
+  public HelpTopic lookupGlobalContextId(String contextId) {
+    HelpTopic topic = globalContextMap.get(contextId);
+    if (topic != null) {
+      accessTracker.recordAccess((int) topic.getLocalContextId());
+    }
+    return topic;
+  }
+
+  @Override
+  public HelpTopic lookupLocalContextId(Integer contextId) {
+    HelpTopic topic = topics.get(contextId);
+    accessTracker.recordAccess(contextId);
+    return topic;
+  }
+
+  @Override
+  public TopicAccessTracker getAccessTracker() {
+    return accessTracker;
+  }
+
+  /** Returns the decoded text of a topic, decoding it if necessary. */
+  abstract List<HelpTopicLine> getTopicText(int topic);
+}
@@ -0,0 +1,200 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * The cross-reference graph between the topics of a document, built from the xref data in each line's attributes.
+ * Forward links and backlinks are stored in compressed sparse row form: the targets of topic {@code i} are
+ * {@code links[linkOffsets[i]]} up to (but excluding) {@code links[linkOffsets[i + 1]]}. Each row is sorted and free of
+ * duplicates.
+ */
+public class LinkGraph {
+
+  /** A link whose target could not be found in the document. */
+  public static class BrokenLink {
+    public final int sourceTopic;
+    public final String target;
+    public final boolean global;
+
+    BrokenLink(int sourceTopic, String target, boolean global) {
+      this.sourceTopic = sourceTopic;
+      this.target = target;
+      this.global = global;
+    }
+  }
+
+  /** The links found in a single topic, gathered before the CSR arrays are assembled. */
+  private static class TopicLinks {
+    final int[] targets;
+    final List<BrokenLink> brokenLinks;
+
+    TopicLinks(int[] targets, List<BrokenLink> brokenLinks) {
+      this.targets = targets;
+      this.brokenLinks = brokenLinks;
+    }
+  }
+
+  private final int[] linkOffsets;
+  private final int[] links;
+  private final int[] backlinkOffsets;
+  private final int[] backlinks;
+
+  /** Topics that are entry points into the document: those with global context IDs, plus topic zero. */
+  private final BitSet roots;
+
+  private final List<BrokenLink> brokenLinks;
+
+  private LinkGraph(int[] linkOffsets, int[] links, int[] backlinkOffsets, int[] backlinks, BitSet roots,
+          List<BrokenLink> brokenLinks) {
+    this.linkOffsets = linkOffsets;
+    this.links = links;
+    this.backlinkOffsets = backlinkOffsets;
+    this.backlinks = backlinks;
+    this.roots = roots;
+    this.brokenLinks = brokenLinks;
+  }
+
+  /**
+   * Builds the link graph for a document. Topics are scanned in parallel; nothing is rendered.
+   */
+  public static LinkGraph build(AdvisorDocument document) {
+    List<HelpTopic> topics = document.getTopics();
+    int topicCount = topics.size();
+
+    TopicLinks[] topicLinks = new TopicLinks[topicCount];
+    IntStream.range(0, topicCount).parallel()
+            .forEach(i -> topicLinks[i] = scanTopic(document, i, topics.get(i), topicCount));
+
+    int[] linkOffsets = new int[topicCount + 1];
+    List<BrokenLink> brokenLinks = new ArrayList<>();
+    for (int i = 0; i < topicCount; i++) {
+      linkOffsets[i + 1] = linkOffsets[i] + topicLinks[i].targets.length;
+      brokenLinks.addAll(topicLinks[i].brokenLinks);
+    }
+
+    int[] links = new int[linkOffsets[topicCount]];
+    int[] inDegrees = new int[topicCount];
+    for (int i = 0; i < topicCount; i++) {
+      int[] targets = topicLinks[i].targets;
+      System.arraycopy(targets, 0, links, linkOffsets[i], targets.length);
+      for (int target : targets) {
+        inDegrees[target]++;
+      }
+    }
+
+    // Transpose the forward links. Sources are visited in ascending order so each backlink row comes out sorted.
+    int[] backlinkOffsets = new int[topicCount + 1];
+    for (int i = 0; i < topicCount; i++) {
+      backlinkOffsets[i + 1] = backlinkOffsets[i] + inDegrees[i];
+    }
+    int[] backlinks = new int[links.length];
+    int[] fill = Arrays.copyOf(backlinkOffsets, topicCount);
+    for (int source = 0; source < topicCount; source++) {
+      for (int index = linkOffsets[source]; index < linkOffsets[source + 1]; index++) {
+        backlinks[fill[links[index]]++] = source;
+      }
+    }
+
+    BitSet roots = new BitSet(topicCount);
+    if (topicCount > 0) {
+      roots.set(0);
+    }
+    document.getGlobalContextMap().forEach((globalContextId, topic) -> roots.set((int) topic.getLocalContextId()));
+
+    return new LinkGraph(linkOffsets, links, backlinkOffsets, backlinks, roots,
+            Collections.unmodifiableList(brokenLinks));
+  }
+
+  private static TopicLinks scanTopic(AdvisorDocument document, int topicIndex, HelpTopic topic, int topicCount) {
+    BitSet targets = new BitSet(topicCount);
+    List<BrokenLink> brokenLinks = new ArrayList<>();
+
+    for (HelpTopicLine line : topic.getText()) {
+      for (HelpTopicLine.Xref xref : line.getXrefs()) {
+        if (xref.localContextLink.isPresent()) {
+          int target = xref.localContextLink.get();
+          if (target < topicCount) {
+            targets.set(target);
+          } else {
+            brokenLinks.add(new BrokenLink(topicIndex, Integer.toString(target), false));
+          }
+        } else {
+          String globalContextId = xref.globalContextLink.get();
+          HelpTopic target = document.getGlobalContextMap().get(globalContextId);
+          if (target != null) {
+            targets.set((int) target.getLocalContextId());
+          } else {
+            brokenLinks.add(new BrokenLink(topicIndex, globalContextId, true));
+          }
+        }
+      }
+    }
+    return new TopicLinks(targets.stream().toArray(), brokenLinks);
+  }
+
+  public int getTopicCount() {
+    return linkOffsets.length - 1;
+  }
+
+  public int getLinkCount() {
+    return links.length;
+  }
+
+  /** Returns the distinct topics that the given topic links to, in ascending order. */
+  public int[] getLinks(int topic) {
+    return Arrays.copyOfRange(links, linkOffsets[topic], linkOffsets[topic + 1]);
+  }
+
+  /** Returns the distinct topics that link to the given topic ("what links here"), in ascending order. */
+  public int[] getBacklinks(int topic) {
+    return Arrays.copyOfRange(backlinks, backlinkOffsets[topic], backlinkOffsets[topic + 1]);
+  }
+
+  public int getLinkCount(int topic) {
+    return linkOffsets[topic + 1] - linkOffsets[topic];
+  }
+
+  public int getBacklinkCount(int topic) {
+    return backlinkOffsets[topic + 1] - backlinkOffsets[topic];
+  }
+
+  /** Returns every link whose local context ID is out of range or whose global context ID is not defined. */
+  public List<BrokenLink> getBrokenLinks() {
+    return brokenLinks;
+  }
+
+  /**
+   * Returns the topics that cannot be reached by following links from topic zero or from any topic with a global
+   * context ID, in ascending order.
+   */
+  public int[] getUnreachableTopics() {
+    int topicCount = getTopicCount();
+    BitSet reached = new BitSet(topicCount);
+    int[] queue = new int[topicCount];
+    int head = 0;
+    int tail = 0;
+
+    for (int root = roots.nextSetBit(0); root >= 0; root = roots.nextSetBit(root + 1)) {
+      reached.set(root);
+      queue[tail++] = root;
+    }
+    while (head < tail) {
+      int topic = queue[head++];
+      for (int index = linkOffsets[topic]; index < linkOffsets[topic + 1]; index++) {
+        int target = links[index];
+        if (!reached.get(target)) {
+          reached.set(target);
+          queue[tail++] = target;
+        }
+      }
+    }
+
+    reached.flip(0, topicCount);
+    return reached.stream().toArray();
+  }
+}
@@ -0,0 +1,128 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Writes a topic as Markdown. Each line ends with a hard line break and leading spaces are kept as non-breaking spaces,
+ * so the layout of the original survives. Bold and italic are emphasis; Markdown has no underline, so that is left to
+ * inline HTML.
+ */
+class MarkdownTopicRenderer implements TopicRenderer {
+  static final TopicRenderer.Factory FACTORY = new TopicRenderer.Factory() {
+    @Override
+    public String getName() {
+      return "markdown";
+    }
+
+    @Override
+    public String getFileExtension() {
+      return "md";
+    }
+
+    @Override
+    public TopicRenderer newRenderer(Writer out) {
+      return new MarkdownTopicRenderer(out);
+    }
+  };
+
+  /** Characters that mean something to Markdown inside a line. */
+  private static final String SPECIAL_CHARACTERS = "\\`*_[]<>#|!";
+
+  private final Writer out;
+  private int style;
+  private String linkTarget;
+  private boolean pastIndent;
+  private boolean lineEmpty;
+
+  MarkdownTopicRenderer(Writer out) {
+    this.out = out;
+  }
+
+  @Override
+  public void startTopic(String documentName, int localContextId) throws IOException {
+    out.write("# Topic " + localContextId + " - " + documentName + "\n\n");
+  }
+
+  @Override
+  public void startLine() {
+    pastIndent = false;
+    lineEmpty = true;
+  }
+
+  @Override
+  public void text(String text, int start, int end) throws IOException {
+    lineEmpty &= start == end;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (!pastIndent && c == ' ') {
+        out.write("&nbsp;");
+        continue;
+      }
+      pastIndent = true;
+      if (SPECIAL_CHARACTERS.indexOf(c) >= 0) {
+        out.write('\\');
+      }
+      out.write(c);
+    }
+  }
+
+  @Override
+  public void startStyle(int style) throws IOException {
+    this.style = style;
+    if ((style & BOLD) != 0) {
+      out.write("**");
+    }
+    if ((style & ITALIC) != 0) {
+      out.write('_');
+    }
+    if ((style & UNDERLINE) != 0) {
+      out.write("<u>");
+    }
+  }
+
+  @Override
+  public void endStyle() throws IOException {
+    if ((style & UNDERLINE) != 0) {
+      out.write("</u>");
+    }
+    if ((style & ITALIC) != 0) {
+      out.write('_');
+    }
+    if ((style & BOLD) != 0) {
+      out.write("**");
+    }
+    style = 0;
+  }
+
+  @Override
+  public void startLink(int localContextId, String globalContextId, String externalTarget) throws IOException {
+    try {
+      if (externalTarget != null) {
+        linkTarget = externalTarget;
+      } else if (localContextId >= 0) {
+        linkTarget = new URI(null, null, "TOPIC_" + localContextId + "." + FACTORY.getFileExtension(), null)
+                .toString();
+      } else {
+        linkTarget = new URI(null, null, null, globalContextId).toString();
+      }
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException("Bad link to " + globalContextId, e);
+    }
+    out.write('[');
+  }
+
+  @Override
+  public void endLink() throws IOException {
+    out.write("](" + linkTarget.replace(")", "%29").replace(" ", "%20") + ")");
+    linkTarget = null;
+  }
+
+  @Override
+  public void endLine() throws IOException {
+    // A blank line separates paragraphs; any other line ends with a hard break
+    out.write(lineEmpty ? "\n" : "  \n");
+  }
+}
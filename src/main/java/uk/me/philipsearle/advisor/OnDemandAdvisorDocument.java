@@ -0,0 +1,223 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A document whose topics are read from the file and decoded the first time their text is accessed. Decoded topics are
+ * kept in a topic cache, so each topic is only decoded once unless the cache is bounded and drops it. The file is only
+ * held open while topics are being read, or until the handle is closed for being idle.
+ */
+public class OnDemandAdvisorDocument extends LazyAdvisorDocument implements Closeable {
+
+  /** The file that topic text is read from. */
+  private final File documentFile;
+
+  /** Decoded topic text, indexed by local context ID. */
+  private final TopicCache topicCache;
+
+  /** Opened on first read so that no file handle is held until a topic is needed. */
+  private FileChannel channel;
+
+  /** The number of reads using the channel, which mustn't be closed for being idle while any are running. */
+  private int activeReads;
+
+  private long lastReadNanos;
+
+  /** Set by {@link #close()}, after which no read may reopen the file. */
+  private boolean closed;
+
+  /** Bytes read from the file: the tables read when opening it, and topic text since. */
+  private final LongAdder bytesRead = new LongAdder();
+
+  private volatile TopicPrefetcher prefetcher;
+
+  OnDemandAdvisorDocument(char applicationPrefix, int maxDisplayWidth, String originalName, File documentFile,
+          TopicMap topicMap, TopicDecoder decoder, CaseInsensitiveHashMap<HelpTopic> globalContextMap,
+          TopicCache topicCache) {
+    super(applicationPrefix, maxDisplayWidth, originalName, topicMap, decoder, globalContextMap);
+    this.documentFile = documentFile;
+    this.topicCache = topicCache;
+  }
+
+  /**
+   * Decodes the hottest topics of a warm-up profile into the topic cache, in parallel, returning once they are all
+   * cached. The remaining topics are left to be decoded on demand. Warm-up decodes are not counted as accesses.
+   *
+   * @return the number of topics decoded
+   */
+  public int warmUp(WarmUpProfile profile, int topicLimit) {
+    if (!profile.matches(this)) {
+      System.err.println("Warning: warm-up profile for " + profile.getOriginalName() + " does not match "
+              + getOriginalName() + ", ignoring it");
+      return 0;
+    }
+
+    int[] hottestTopics = Arrays.stream(profile.getHottestTopics(topicLimit))
+            .filter(topic -> topic < getTopics().size() && !isCached(topic))
+            .toArray();
+    Arrays.stream(hottestTopics).parallel().forEach(topic -> cacheTopic(topic, decodeTopic(topic)));
+    return hottestTopics.length;
+  }
+
+  /**
+   * Starts decoding the targets of each fetched topic's links in the background.
+   *
+   * @param fanOut the maximum number of link targets to prefetch per fetched topic
+   * @param maxInFlight the maximum number of prefetches queued or running at once; further requests are dropped
+   * @return the prefetcher, whose statistics show whether prefetching is paying off
+   */
+  public synchronized TopicPrefetcher startPrefetching(int fanOut, int maxInFlight) {
+    if (prefetcher != null) {
+      prefetcher.close();
+    }
+    prefetcher = new TopicPrefetcher(this, fanOut, maxInFlight);
+    return prefetcher;
+  }
+
+  /** Returns the number of bytes read from the file, including the header and tables read when it was opened. */
+  public long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  void addBytesRead(long bytes) {
+    bytesRead.add(bytes);
+  }
+
+  /** Returns the length of the file. */
+  public long getFileLength() {
+    return documentFile.length();
+  }
+
+  /** Returns the number of topics whose decoded text is currently held in the topic cache. */
+  public int getCachedTopicCount() {
+    return topicCache.size();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    if (prefetcher != null) {
+      prefetcher.close();
+      prefetcher = null;
+    }
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  @Override
+  List<HelpTopicLine> getTopicText(int topic) {
+    List<HelpTopicLine> text = topicCache.get(topic);
+    boolean cached = text != null;
+    if (!cached) {
+      text = cacheTopic(topic, decodeTopic(topic));
+    }
+
+    TopicPrefetcher currentPrefetcher = prefetcher;
+    if (currentPrefetcher != null) {
+      currentPrefetcher.topicFetched(topic, text, cached);
+    }
+    return text;
+  }
+
+  boolean isCached(int topic) {
+    return topicCache.contains(topic);
+  }
+
+  /** Adds decoded text to the topic cache, returning whichever copy won if another thread got there first. */
+  List<HelpTopicLine> cacheTopic(int topic, List<HelpTopicLine> text) {
+    return topicCache.putIfAbsent(topic, text);
+  }
+
+  List<HelpTopicLine> decodeTopic(int topic) {
+    try {
+      return decoder.decode(topic, readCompressedTopic(topic));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read topic " + topic + " from " + documentFile, e);
+    }
+  }
+
+  byte[] readCompressedTopic(int topic) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(topicMap.getLength(topic));
+    long position = topicMap.getOffset(topic);
+    while (true) {
+      FileChannel fileChannel = acquireChannel();
+      try {
+        while (buffer.hasRemaining()) {
+          // Positional reads don't move the channel's own position, so concurrent reads don't interfere
+          if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+            throw new EOFException("Topic " + topic + " extends beyond the end of " + documentFile);
+          }
+        }
+        break;
+      } catch (ClosedByInterruptException e) {
+        // Interrupting this thread closed the channel for every reader, so the next read must reopen it
+        discardChannel(fileChannel);
+        throw e;
+      } catch (ClosedChannelException e) {
+        // Another reader was interrupted, closing the channel under this one, so reopen it and read again; if the
+        // document was closed instead, reopening it fails
+        discardChannel(fileChannel);
+        buffer.clear();
+      } finally {
+        releaseChannel();
+      }
+    }
+    bytesRead.add(buffer.capacity());
+    return buffer.array();
+  }
+
+  private synchronized FileChannel acquireChannel() throws IOException {
+    if (closed) {
+      throw new ClosedChannelException();
+    }
+    if (channel == null) {
+      channel = FileChannel.open(documentFile.toPath(), StandardOpenOption.READ);
+    }
+    activeReads++;
+    return channel;
+  }
+
+  private synchronized void discardChannel(FileChannel closedChannel) {
+    if (channel == closedChannel) {
+      channel = null;
+    }
+  }
+
+  private synchronized void releaseChannel() {
+    activeReads--;
+    lastReadNanos = System.nanoTime();
+  }
+
+  /**
+   * Closes the file if no topic has been read from it for the given time. It is reopened by the next read.
+   *
+   * @return whether the file was closed
+   */
+  synchronized boolean closeIfIdle(long idleNanos) throws IOException {
+    if (channel == null || activeReads > 0 || System.nanoTime() - lastReadNanos < idleNanos) {
+      return false;
+    }
+    channel.close();
+    channel = null;
+    return true;
+  }
+
+  /** Returns whether the document currently holds its file open. */
+  synchronized boolean isOpen() {
+    return channel != null;
+  }
+}
@@ -0,0 +1,204 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Chooses the keyword table for a document from the words in its topics. Each candidate phrase is scored by the bytes
+ * it would save: a two byte code replaces the phrase, and the space after it if there is one.
+ * <p>
+ * With whole words only, the score of each word is exact and the best 1024 are chosen directly. Extended phrases can
+ * also match inside longer words, so candidates overlap and their scores interact. Candidates are first scored as if
+ * they were used everywhere they occur. Then the best 1024 are repeatedly re-scored by encoding every distinct word the
+ * way {@link TopicEncoder} would, and candidates that turn out to save little are swapped for the next best.
+ */
+class PhraseDictionaryBuilder {
+  static final int MAX_KEYWORDS = 1024;
+
+  /** The longest phrase considered inside a word when building an extended dictionary. */
+  private static final int MAX_EXTENDED_PHRASE = 24;
+
+  /** How many candidates beyond the table size take part in re-scoring, as a multiple of the table size. */
+  private static final int CANDIDATE_POOL_FACTOR = 4;
+
+  private static final int REFINEMENT_ROUNDS = 4;
+
+  /** How often a word occurs, and how often it is followed by a space. */
+  private static class WordCount {
+    long count;
+    long followedBySpace;
+
+    void add(WordCount other) {
+      count += other.count;
+      followedBySpace += other.followedBySpace;
+    }
+  }
+
+  private final Charset charset;
+  private final boolean extendedPhrases;
+
+  PhraseDictionaryBuilder(Charset charset, boolean extendedPhrases) {
+    this.charset = charset;
+    this.extendedPhrases = extendedPhrases;
+  }
+
+  /**
+   * Counts the words of every topic, in parallel, and chooses the keyword table.
+   */
+  List<byte[]> build(AdvisorDocument document) {
+    Map<String, WordCount> words = document.topics().parallel()
+            .map(this::countWords)
+            .reduce(new HashMap<>(), PhraseDictionaryBuilder::merge);
+
+    List<String> keywords = extendedPhrases ? chooseExtendedPhrases(words) : chooseWholeWords(words);
+    List<byte[]> keywordTable = new ArrayList<>();
+    for (String keyword : keywords) {
+      keywordTable.add(keyword.getBytes(StandardCharsets.ISO_8859_1));
+    }
+    return keywordTable;
+  }
+
+  /** Words are kept as Latin-1 strings of the document's bytes, so that each char is one byte. */
+  private Map<String, WordCount> countWords(HelpTopic topic) {
+    Map<String, WordCount> words = new HashMap<>();
+    for (HelpTopicLine line : topic.getText()) {
+      String text = new String(line.getText().getBytes(charset), StandardCharsets.ISO_8859_1);
+      int index = 0;
+      while (index < text.length()) {
+        if (text.charAt(index) == ' ') {
+          index++;
+          continue;
+        }
+        int wordEnd = text.indexOf(' ', index);
+        wordEnd = wordEnd < 0 ? text.length() : wordEnd;
+        WordCount count = words.computeIfAbsent(text.substring(index, wordEnd), word -> new WordCount());
+        count.count++;
+        count.followedBySpace += wordEnd < text.length() ? 1 : 0;
+        index = wordEnd;
+      }
+    }
+    return words;
+  }
+
+  private static Map<String, WordCount> merge(Map<String, WordCount> a, Map<String, WordCount> b) {
+    Map<String, WordCount> merged = new HashMap<>(a);
+    b.forEach((word, count) -> merged.merge(word, count, (x, y) -> {
+      WordCount sum = new WordCount();
+      sum.add(x);
+      sum.add(y);
+      return sum;
+    }));
+    return merged;
+  }
+
+  private static List<String> chooseWholeWords(Map<String, WordCount> words) {
+    Map<String, Long> savings = new HashMap<>();
+    words.forEach((word, count) -> savings.put(word, count.count * (word.length() - 2) + count.followedBySpace));
+    return best(savings, MAX_KEYWORDS);
+  }
+
+  private static List<String> chooseExtendedPhrases(Map<String, WordCount> words) {
+    // Every piece of every word is a candidate, scored as if it were used wherever it occurs
+    Map<String, Long> estimates = new HashMap<>();
+    words.forEach((word, count) -> {
+      for (int start = 0; start < word.length(); start++) {
+        for (int end = start + 2; end <= Math.min(word.length(), start + MAX_EXTENDED_PHRASE); end++) {
+          long saving = count.count * (end - start - 2) + (end == word.length() ? count.followedBySpace : 0);
+          if (saving > 0) {
+            estimates.merge(word.substring(start, end), saving, Long::sum);
+          }
+        }
+      }
+    });
+
+    List<String> pool = best(estimates, MAX_KEYWORDS * CANDIDATE_POOL_FACTOR);
+    Map<String, Long> scores = new HashMap<>();
+    for (String candidate : pool) {
+      scores.put(candidate, estimates.get(candidate));
+    }
+
+    List<String> chosen = best(scores, MAX_KEYWORDS);
+    for (int round = 0; round < REFINEMENT_ROUNDS; round++) {
+      Map<String, Long> actual = measureSavings(chosen, words);
+      for (String keyword : chosen) {
+        scores.put(keyword, actual.getOrDefault(keyword, 0L));
+      }
+      chosen = best(scores, MAX_KEYWORDS);
+    }
+
+    // Only keep phrases that are still used once the final table is in place
+    Map<String, Long> actual = measureSavings(chosen, words);
+    return best(actual, MAX_KEYWORDS);
+  }
+
+  /**
+   * Encodes each distinct word with the given keywords, as {@link TopicEncoder} would, and totals the bytes each
+   * keyword saves.
+   */
+  private static Map<String, Long> measureSavings(List<String> keywords, Map<String, WordCount> words) {
+    List<byte[]> keywordTable = new ArrayList<>();
+    for (String keyword : keywords) {
+      keywordTable.add(keyword.getBytes(StandardCharsets.ISO_8859_1));
+    }
+    TopicEncoder encoder = new TopicEncoder(StandardCharsets.ISO_8859_1, keywordTable, true, false);
+
+    return words.entrySet().parallelStream().map(entry -> {
+      Map<String, Long> savings = new HashMap<>();
+      String word = entry.getKey();
+      WordCount count = entry.getValue();
+      byte[] encoded = encodeWord(encoder, word);
+      // Walk the codes: keyword codes are 0x10 to 0x17 followed by the low byte of the index
+      int decodedLength = 0;
+      for (int i = 0; i < encoded.length; i++) {
+        int c = encoded[i] & 0xff;
+        if (c >= 0x10 && c <= 0x17) {
+          String keyword = keywords.get(((c & 0x03) << 8) | (encoded[++i] & 0xff));
+          decodedLength += keyword.length();
+          boolean atEnd = decodedLength == word.length();
+          long saving = count.count * (keyword.length() - 2) + (atEnd ? count.followedBySpace : 0);
+          savings.merge(keyword, saving, Long::sum);
+        } else {
+          decodedLength++;
+          if (c == 0x1a) {
+            i++;
+          }
+        }
+      }
+      return savings;
+    }).reduce(new HashMap<>(), (a, b) -> {
+      Map<String, Long> merged = new HashMap<>(a);
+      b.forEach((keyword, saving) -> merged.merge(keyword, saving, Long::sum));
+      return merged;
+    });
+  }
+
+  /** Encodes a word on its own, so the encoder never takes a following space with a keyword. */
+  private static byte[] encodeWord(TopicEncoder encoder, String word) {
+    byte[] encodedLine = encoder.encode(Collections.singletonList(new HelpTopicLine(word, new byte[0])));
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    // Skip the possibly escaped line length before the text, and the attribute length of one after it
+    int start = (encodedLine[0] & 0xff) == 0x1a ? 2 : 1;
+    int end = encodedLine.length - 1;
+    text.write(encodedLine, start, end - start);
+    return text.toByteArray();
+  }
+
+  /** Returns up to the given number of keys with the highest positive values, best first, ties broken by key. */
+  private static List<String> best(Map<String, Long> values, int limit) {
+    return values.entrySet().stream()
+            .filter(entry -> entry.getValue() > 0)
+            .sorted(Comparator.comparing((Map.Entry<String, Long> entry) -> entry.getValue()).reversed()
+                    .thenComparing(Map.Entry::getKey))
+            .limit(limit)
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,228 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Holds topics already rendered to UTF-8, keyed by document, topic and format, so that a topic asked for again and
+ * again is only rendered once. Documents never change once loaded, so cached output never goes stale; documents are
+ * told apart by identity, and a reloaded document starts afresh.
+ * <p>
+ * The cache is bounded by the bytes it holds and evicts the least recently used topics first. When several threads ask
+ * for the same topic at once, one renders it and the others wait for its result.
+ */
+public class RenderedTopicCache {
+  /** Estimated heap used by an entry besides its bytes: the key, the entry, the map node and the array header. */
+  private static final int ENTRY_OVERHEAD = 112;
+
+  private static final class Key {
+    final AdvisorDocument document;
+    final int topic;
+    final String format;
+
+    Key(AdvisorDocument document, int topic, String format) {
+      this.document = document;
+      this.topic = topic;
+      this.format = format;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return document == key.document && topic == key.topic && format.equals(key.format);
+    }
+
+    @Override
+    public int hashCode() {
+      return (System.identityHashCode(document) * 31 + topic) * 31 + format.hashCode();
+    }
+  }
+
+  private final long maxBytes;
+
+  /** Rendered topics in access order, least recently used first. */
+  private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+  /** Topics being rendered by some thread, which any other thread asking for them waits on. */
+  private final Map<Key, CompletableFuture<byte[]>> rendering = new HashMap<>();
+
+  private long residentBytes;
+  private long hits;
+  private long misses;
+  private long waits;
+  private long evictions;
+  private long rejections;
+
+  /**
+   * @param maxBytes the most heap, as estimated by {@link #estimateBytes(byte[])}, the rendered topics may use
+   */
+  public RenderedTopicCache(long maxBytes) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("Cache size can't be negative: " + maxBytes);
+    }
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns a topic rendered in the given format and encoded as UTF-8, rendering it if it isn't cached. The returned
+   * array is shared and must not be modified.
+   *
+   * @param externalLinks gives the link target for a global context ID that isn't in the document, or null; it must
+   *          give the same targets every time a document is rendered in the same format
+   */
+  public byte[] get(AdvisorDocument document, int topic, TopicRenderer.Factory format,
+          Function<String, String> externalLinks) {
+    Key key = new Key(document, topic, format.getName());
+    CompletableFuture<byte[]> result;
+    CompletableFuture<byte[]> ownRender = null;
+    synchronized (this) {
+      byte[] cached = entries.get(key);
+      if (cached != null) {
+        hits++;
+        return cached;
+      }
+      result = rendering.get(key);
+      if (result != null) {
+        waits++;
+      } else {
+        misses++;
+        ownRender = new CompletableFuture<>();
+        rendering.put(key, ownRender);
+      }
+    }
+
+    if (result != null) {
+      try {
+        return result.join();
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+      }
+    }
+
+    byte[] rendered;
+    try {
+      rendered = render(document, document.getTopics().get(topic), format, externalLinks);
+    } catch (RuntimeException | Error e) {
+      synchronized (this) {
+        rendering.remove(key, ownRender);
+      }
+      ownRender.completeExceptionally(e);
+      throw e;
+    }
+    synchronized (this) {
+      // If the document was invalidated while this was rendering, its render is no longer listed and isn't cached
+      if (rendering.remove(key, ownRender)) {
+        put(key, rendered);
+      }
+    }
+    ownRender.complete(rendered);
+    return rendered;
+  }
+
+  private void put(Key key, byte[] rendered) {
+    long weight = estimateBytes(rendered);
+    if (weight > maxBytes) {
+      rejections++;
+      return;
+    }
+    Iterator<byte[]> iterator = entries.values().iterator();
+    while (residentBytes + weight > maxBytes) {
+      residentBytes -= estimateBytes(iterator.next());
+      iterator.remove();
+      evictions++;
+    }
+    entries.put(key, rendered);
+    residentBytes += weight;
+  }
+
+  private static byte[] render(AdvisorDocument document, HelpTopic topic, TopicRenderer.Factory format,
+          Function<String, String> externalLinks) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+    try (Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+      TopicRenderers.render(document, topic, format.newRenderer(out), externalLinks);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to render topic " + topic.getLocalContextId(), e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Drops every rendered topic of a document, for when it is closed or replaced. Renders of the document that are still
+   * running finish for the threads waiting on them, but aren't cached.
+   */
+  public synchronized void invalidate(AdvisorDocument document) {
+    rendering.keySet().removeIf(key -> key.document == document);
+    Iterator<Map.Entry<Key, byte[]>> iterator = entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Key, byte[]> entry = iterator.next();
+      if (entry.getKey().document == document) {
+        residentBytes -= estimateBytes(entry.getValue());
+        iterator.remove();
+      }
+    }
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public synchronized long getResidentBytes() {
+    return residentBytes;
+  }
+
+  public synchronized int getResidentTopicCount() {
+    return entries.size();
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  /** Returns the number of requests that rendered the topic themselves. */
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  /** Returns the number of requests that waited for another thread to render the same topic. */
+  public synchronized long getWaitCount() {
+    return waits;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictions;
+  }
+
+  /** Returns the number of rendered topics not cached because they were bigger than the whole cache. */
+  public synchronized long getRejectionCount() {
+    return rejections;
+  }
+
+  public synchronized void outputStatistics(PrintStream out) {
+    long requests = hits + misses + waits;
+    out.printf("Rendered: %d topics, %d of %d bytes\n", entries.size(), residentBytes, maxBytes);
+    out.printf(Locale.ROOT, "Hits: %d, misses: %d, waits: %d (%.1f%% hit rate)\n", hits, misses, waits,
+            requests == 0 ? 0.0 : 100.0 * (hits + waits) / requests);
+    out.printf("Evictions: %d, rejected: %d\n", evictions, rejections);
+  }
+
+  /** Estimates the heap used by a cached topic. */
+  static long estimateBytes(byte[] rendered) {
+    return ENTRY_OVERHEAD + rendered.length;
+  }
+}
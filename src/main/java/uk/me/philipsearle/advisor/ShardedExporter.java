@@ -0,0 +1,197 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Exports one shard of a document so that a large export can be split across processes or machines, and merges the
+ * per-shard manifests afterwards. Each shard only reads and decodes its own topics. Shards are numbered from one.
+ * <p>
+ * A manifest ({@code _SHARD_i_OF_n.TXT}) is a header of {@code key value} lines followed by one
+ * {@code topic localId compressedBytes outputBytes} line per exported topic.
+ */
+class ShardedExporter {
+  private static final Pattern SHARD_SPEC = Pattern.compile("(\\d+)/(\\d+)");
+  private static final Pattern MANIFEST_NAME = Pattern.compile("_SHARD_(\\d+)_OF_(\\d+)\\.TXT");
+
+  private ShardedExporter() {
+  }
+
+  /**
+   * Parses a shard specification of the form {@code i/n}.
+   *
+   * @return the one-based shard number and the shard count
+   */
+  static int[] parseShardSpec(String spec) {
+    Matcher matcher = SHARD_SPEC.matcher(spec);
+    if (!matcher.matches()) {
+      throw new IllegalArgumentException("Shard must be given as i/n, not " + spec);
+    }
+    int shard = Integer.parseInt(matcher.group(1));
+    int shardCount = Integer.parseInt(matcher.group(2));
+    if (shardCount < 1 || shard < 1 || shard > shardCount) {
+      throw new IllegalArgumentException("Shard " + spec + " is out of range");
+    }
+    return new int[] { shard, shardCount };
+  }
+
+  static File getManifestFile(File outputDirectory, int shard, int shardCount) {
+    return new File(outputDirectory, "_SHARD_" + shard + "_OF_" + shardCount + ".TXT");
+  }
+
+  static void exportShard(OnDemandAdvisorDocument document, File outputDirectory, int shard, int shardCount,
+          TopicRenderer.Factory format) {
+    long start = System.nanoTime();
+    int[] assignment = TopicPartitioner.assignShards(document.topicMap, shardCount);
+
+    StringBuilder topicLines = new StringBuilder();
+    int topicsWritten = 0;
+    long compressedBytes = 0;
+    long outputBytes = 0;
+    // Visit the shard's topics in file order so reads stay sequential
+    for (int topic : document.topicMap.getTopicsInFileOrder()) {
+      if (assignment[topic] != shard - 1) {
+        continue;
+      }
+
+      File topicFile = new File(outputDirectory, "TOPIC_" + topic + "." + format.getFileExtension());
+      HtmlTopicExtractor.outputTopic(document, document.getTopics().get(topic), topicFile, format,
+              globalContextId -> null);
+      topicsWritten++;
+      compressedBytes += document.topicMap.getLength(topic);
+      outputBytes += topicFile.length();
+      topicLines.append(String.format("topic %d %d %d\n", topic, document.topicMap.getLength(topic),
+              topicFile.length()));
+    }
+
+    File manifestFile = getManifestFile(outputDirectory, shard, shardCount);
+    try (PrintWriter out = new PrintWriter(manifestFile, StandardCharsets.UTF_8.name())) {
+      out.printf("originalName %s\n", document.getOriginalName());
+      out.printf("shard %d/%d\n", shard, shardCount);
+      out.printf("documentTopicCount %d\n", document.getTopics().size());
+      out.printf("topicCount %d\n", topicsWritten);
+      out.printf("compressedBytes %d\n", compressedBytes);
+      out.printf("outputBytes %d\n", outputBytes);
+      out.printf("elapsedMillis %d\n", (System.nanoTime() - start) / 1_000_000);
+      out.print(topicLines);
+    } catch (FileNotFoundException | UnsupportedEncodingException e) {
+      throw new RuntimeException("Failed to write shard manifest " + manifestFile, e);
+    }
+  }
+
+  /**
+   * Combines the shard manifests in an output directory into {@code _SHARDS.TXT}, checking that every shard is present
+   * and every topic was exported exactly once.
+   *
+   * @return whether the export is complete
+   */
+  static boolean mergeManifests(File outputDirectory, PrintStream out) throws IOException {
+    Map<Integer, Map<String, String>> manifests = new TreeMap<>();
+    Map<Integer, BitSet> shardTopics = new TreeMap<>();
+    int shardCount = -1;
+
+    File[] files = outputDirectory.listFiles();
+    for (File file : files == null ? new File[0] : files) {
+      Matcher matcher = MANIFEST_NAME.matcher(file.getName());
+      if (!matcher.matches()) {
+        continue;
+      }
+      int count = Integer.parseInt(matcher.group(2));
+      if (shardCount != -1 && count != shardCount) {
+        throw new IOException("Found manifests for both " + shardCount + " and " + count + " shards in "
+                + outputDirectory);
+      }
+      shardCount = count;
+
+      Map<String, String> header = new TreeMap<>();
+      BitSet topics = new BitSet();
+      try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String[] fields = line.split(" ", 2);
+          if (fields[0].equals("topic")) {
+            topics.set(Integer.parseInt(fields[1].split(" ")[0]));
+          } else if (fields.length == 2) {
+            header.put(fields[0], fields[1]);
+          }
+        }
+      }
+      int shard = Integer.parseInt(matcher.group(1));
+      manifests.put(shard, header);
+      shardTopics.put(shard, topics);
+    }
+    if (manifests.isEmpty()) {
+      throw new IOException("No shard manifests found in " + outputDirectory);
+    }
+
+    int documentTopicCount = Integer.parseInt(manifests.values().iterator().next().get("documentTopicCount"));
+    BitSet seen = new BitSet(documentTopicCount);
+    BitSet duplicated = new BitSet(documentTopicCount);
+    for (BitSet topics : shardTopics.values()) {
+      BitSet overlap = (BitSet) topics.clone();
+      overlap.and(seen);
+      duplicated.or(overlap);
+      seen.or(topics);
+    }
+    BitSet missing = new BitSet(documentTopicCount);
+    missing.set(0, documentTopicCount);
+    missing.andNot(seen);
+
+    long totalCompressedBytes = 0;
+    long totalOutputBytes = 0;
+    long slowestMillis = 0;
+    boolean complete = manifests.size() == shardCount && missing.isEmpty() && duplicated.isEmpty();
+    File summaryFile = new File(outputDirectory, "_SHARDS.TXT");
+    try (PrintWriter summary = new PrintWriter(summaryFile, StandardCharsets.UTF_8.name())) {
+      summary.printf("Original name        : %s\n", manifests.values().iterator().next().get("originalName"));
+      summary.printf("Shards               : %d of %d present\n", manifests.size(), shardCount);
+      summary.printf("Topic count          : %d\n\n", documentTopicCount);
+      summary.printf("shard    topics  compressed      output  elapsed ms\n");
+      for (Map.Entry<Integer, Map<String, String>> manifest : manifests.entrySet()) {
+        Map<String, String> header = manifest.getValue();
+        long compressedBytes = Long.parseLong(header.get("compressedBytes"));
+        long outputBytes = Long.parseLong(header.get("outputBytes"));
+        long elapsedMillis = Long.parseLong(header.get("elapsedMillis"));
+        totalCompressedBytes += compressedBytes;
+        totalOutputBytes += outputBytes;
+        slowestMillis = Math.max(slowestMillis, elapsedMillis);
+        summary.printf("%5d %9s %11d %11d %11d\n", manifest.getKey(), header.get("topicCount"), compressedBytes,
+                outputBytes, elapsedMillis);
+      }
+      summary.printf("total %9d %11d %11d %11d\n\n", seen.cardinality(), totalCompressedBytes, totalOutputBytes,
+              slowestMillis);
+      summary.printf("Missing topics       : %s\n", describeTopics(missing));
+      summary.printf("Duplicated topics    : %s\n", describeTopics(duplicated));
+      summary.printf("Complete             : %s\n", complete ? "yes" : "no");
+    }
+
+    out.print(new String(Files.readAllBytes(summaryFile.toPath()), StandardCharsets.UTF_8));
+    return complete;
+  }
+
+  /** Lists the first few topics of a set, which may be every topic of a missing shard. */
+  private static String describeTopics(BitSet topics) {
+    if (topics.isEmpty()) {
+      return "none";
+    }
+
+    StringBuilder description = new StringBuilder().append(topics.cardinality()).append(" (");
+    int listed = 0;
+    for (int topic = topics.nextSetBit(0); topic >= 0 && listed < 10; topic = topics.nextSetBit(topic + 1)) {
+      description.append(listed++ == 0 ? "" : ", ").append(topic);
+    }
+    return description.append(topics.cardinality() > listed ? ", ...)" : ")").toString();
+  }
+}
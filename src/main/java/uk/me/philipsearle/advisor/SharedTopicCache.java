@@ -0,0 +1,258 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One cache of decoded topics for many documents, bounded by the estimated heap used by the text it holds. Each
+ * document gets its own {@link TopicCache} view, which keeps that document's hit rate and residency.
+ * <p>
+ * Eviction is least recently used, but a new topic is only admitted if it has been requested more often than the
+ * topics it would evict. Request counts are kept approximately, in a small count-min sketch that is halved
+ * periodically so that old popularity fades. One-off requests, such as a crawl through every topic of a large
+ * document, then can't flush the topics that are requested again and again.
+ */
+class SharedTopicCache {
+  /** The number of hash functions used by the frequency sketch. */
+  private static final int SKETCH_DEPTH = 4;
+
+  /** Counters saturate at this value, which is plenty to tell popular topics from the rest. */
+  private static final int MAX_FREQUENCY = 15;
+
+  /** A document's view of the cache, with its own statistics. */
+  class DocumentCache implements TopicCache {
+    private final int documentId;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // Guarded by the shared cache
+    private int residentTopics;
+    private long residentBytes;
+
+    private DocumentCache(int documentId) {
+      this.documentId = documentId;
+    }
+
+    @Override
+    public List<HelpTopicLine> get(int topic) {
+      List<HelpTopicLine> text = SharedTopicCache.this.get(key(topic));
+      (text != null ? hits : misses).increment();
+      return text;
+    }
+
+    @Override
+    public boolean contains(int topic) {
+      synchronized (SharedTopicCache.this) {
+        return entries.containsKey(key(topic));
+      }
+    }
+
+    @Override
+    public List<HelpTopicLine> putIfAbsent(int topic, List<HelpTopicLine> text) {
+      return put(this, key(topic), text);
+    }
+
+    @Override
+    public int size() {
+      synchronized (SharedTopicCache.this) {
+        return residentTopics;
+      }
+    }
+
+    long getResidentBytes() {
+      synchronized (SharedTopicCache.this) {
+        return residentBytes;
+      }
+    }
+
+    long getHitCount() {
+      return hits.sum();
+    }
+
+    long getMissCount() {
+      return misses.sum();
+    }
+
+    /** Drops all of this document's topics, for when it is closed. */
+    void clear() {
+      synchronized (SharedTopicCache.this) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+          Entry entry = iterator.next();
+          if (entry.owner == this) {
+            iterator.remove();
+            release(entry);
+          }
+        }
+      }
+    }
+
+    private long key(int topic) {
+      return ((long) documentId << 16) | topic;
+    }
+  }
+
+  private static final class Entry {
+    final DocumentCache owner;
+    final List<HelpTopicLine> text;
+    final long weight;
+
+    Entry(DocumentCache owner, List<HelpTopicLine> text, long weight) {
+      this.owner = owner;
+      this.text = text;
+      this.weight = weight;
+    }
+  }
+
+  private final long maxBytes;
+
+  /** Cached topics in access order, least recently used first. */
+  private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+  private final byte[] sketch;
+  private final int sketchMask;
+  private final int sketchResetInterval;
+  private int sketchIncrements;
+
+  private long residentBytes;
+  private int nextDocumentId;
+  private long evictions;
+  private long rejections;
+
+  /**
+   * @param maxBytes the most heap, as estimated by {@link #estimateBytes(List)}, the cached text may use
+   */
+  SharedTopicCache(long maxBytes) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("Cache size can't be negative: " + maxBytes);
+    }
+    this.maxBytes = maxBytes;
+    // Sized for a few times the topics that fit, assuming a typical topic of about 4KB once decoded
+    int sketchSize = Integer.highestOneBit((int) Math.max(1024, Math.min(1 << 22, maxBytes / 1024)));
+    this.sketch = new byte[sketchSize];
+    this.sketchMask = sketchSize - 1;
+    this.sketchResetInterval = sketchSize * 10;
+  }
+
+  synchronized DocumentCache newDocumentCache() {
+    return new DocumentCache(nextDocumentId++);
+  }
+
+  private synchronized List<HelpTopicLine> get(long key) {
+    recordRequest(key);
+    Entry entry = entries.get(key);
+    return entry == null ? null : entry.text;
+  }
+
+  private synchronized List<HelpTopicLine> put(DocumentCache owner, long key, List<HelpTopicLine> text) {
+    Entry existing = entries.get(key);
+    if (existing != null) {
+      return existing.text;
+    }
+    long weight = estimateBytes(text);
+    if (weight > maxBytes) {
+      rejections++;
+      return text;
+    }
+
+    // Find the least recently used topics that would have to go, and only evict them if the new topic is more popular
+    if (residentBytes + weight > maxBytes) {
+      int frequency = estimateFrequency(key);
+      List<Long> victims = new ArrayList<>();
+      long freedBytes = 0;
+      for (Map.Entry<Long, Entry> victim : entries.entrySet()) {
+        if (residentBytes - freedBytes + weight <= maxBytes) {
+          break;
+        }
+        if (estimateFrequency(victim.getKey()) > frequency) {
+          rejections++;
+          return text;
+        }
+        victims.add(victim.getKey());
+        freedBytes += victim.getValue().weight;
+      }
+      for (long victim : victims) {
+        release(entries.remove(victim));
+        evictions++;
+      }
+    }
+
+    entries.put(key, new Entry(owner, text, weight));
+    residentBytes += weight;
+    owner.residentBytes += weight;
+    owner.residentTopics++;
+    return text;
+  }
+
+  private void release(Entry entry) {
+    residentBytes -= entry.weight;
+    entry.owner.residentBytes -= entry.weight;
+    entry.owner.residentTopics--;
+  }
+
+  private void recordRequest(long key) {
+    for (int i = 0; i < SKETCH_DEPTH; i++) {
+      int index = sketchIndex(key, i);
+      if (sketch[index] < MAX_FREQUENCY) {
+        sketch[index]++;
+      }
+    }
+    if (++sketchIncrements == sketchResetInterval) {
+      for (int i = 0; i < sketch.length; i++) {
+        sketch[i] >>= 1;
+      }
+      sketchIncrements = 0;
+    }
+  }
+
+  private int estimateFrequency(long key) {
+    int frequency = MAX_FREQUENCY;
+    for (int i = 0; i < SKETCH_DEPTH; i++) {
+      frequency = Math.min(frequency, sketch[sketchIndex(key, i)]);
+    }
+    return frequency;
+  }
+
+  private int sketchIndex(long key, int row) {
+    long hash = key * 0x9e3779b97f4a7c15L + row * 0xc2b2ae3d27d4eb4fL;
+    hash ^= hash >>> 29;
+    hash *= 0xbf58476d1ce4e5b9L;
+    return (int) (hash >>> 32) & sketchMask;
+  }
+
+  long getMaxBytes() {
+    return maxBytes;
+  }
+
+  synchronized long getResidentBytes() {
+    return residentBytes;
+  }
+
+  synchronized int getResidentTopicCount() {
+    return entries.size();
+  }
+
+  synchronized long getEvictionCount() {
+    return evictions;
+  }
+
+  /** Returns the number of topics not cached because they were too big or too rarely requested. */
+  synchronized long getRejectionCount() {
+    return rejections;
+  }
+
+  /**
+   * Estimates the heap used by a topic's decoded text, assuming compressed references and two bytes per character.
+   */
+  static long estimateBytes(List<HelpTopicLine> text) {
+    long bytes = 40 + 4L * text.size();
+    for (HelpTopicLine line : text) {
+      bytes += 24 + 40 + 2L * line.getText().length() + 16 + line.getAttributes().length;
+    }
+    return bytes;
+  }
+}
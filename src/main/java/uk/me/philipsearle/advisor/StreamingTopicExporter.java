@@ -0,0 +1,189 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exports a document as a pipeline: one thread reads compressed topics in file offset order, a pool of workers decodes
+ * them and a pool of writers renders and writes the output files. The stages are connected by bounded queues, so the
+ * number of topics held in memory is fixed however large the document is, and the first files are written as soon as
+ * the first topics have been decoded.
+ */
+class StreamingTopicExporter {
+
+  /** Throughput counters for one pipeline stage. */
+  static class StageStatistics {
+    final String name;
+    final LongAdder itemCount = new LongAdder();
+    final LongAdder byteCount = new LongAdder();
+    final LongAdder busyNanos = new LongAdder();
+    final AtomicLong lastItemNanos = new AtomicLong();
+
+    StageStatistics(String name) {
+      this.name = name;
+    }
+
+    void recordItem(long startNanos, long bytes) {
+      long now = System.nanoTime();
+      itemCount.increment();
+      byteCount.add(bytes);
+      busyNanos.add(now - startNanos);
+      lastItemNanos.accumulateAndGet(now, Math::max);
+    }
+  }
+
+  private static class CompressedTopic {
+    final int topic;
+    final byte[] compressedText;
+
+    CompressedTopic(int topic, byte[] compressedText) {
+      this.topic = topic;
+      this.compressedText = compressedText;
+    }
+  }
+
+  /** Marks the end of the stream on a queue; one is queued for every consumer thread. */
+  private static final CompressedTopic END_OF_COMPRESSED_TOPICS = new CompressedTopic(-1, null);
+  private static final HelpTopic END_OF_DECODED_TOPICS = new HelpTopic(-1, null);
+
+  private final OnDemandAdvisorDocument document;
+  private final File outputDirectory;
+  private final TopicRenderer.Factory format;
+  private final int decoderThreads;
+  private final int writerThreads;
+  private final BlockingQueue<CompressedTopic> compressedTopics;
+  private final BlockingQueue<HelpTopic> decodedTopics;
+
+  private final StageStatistics readStage = new StageStatistics("read");
+  private final StageStatistics decodeStage = new StageStatistics("decode");
+  private final StageStatistics writeStage = new StageStatistics("render+write");
+  private final AtomicLong firstOutputNanos = new AtomicLong();
+  private long startNanos;
+  private int finishedDecoders;
+
+  /**
+   * @param queueCapacity the maximum number of topics waiting between each pair of stages
+   */
+  StreamingTopicExporter(OnDemandAdvisorDocument document, File outputDirectory, TopicRenderer.Factory format,
+          int decoderThreads, int writerThreads, int queueCapacity) {
+    this.document = document;
+    this.outputDirectory = outputDirectory;
+    this.format = format;
+    this.decoderThreads = decoderThreads;
+    this.writerThreads = writerThreads;
+    this.compressedTopics = new ArrayBlockingQueue<>(queueCapacity);
+    this.decodedTopics = new ArrayBlockingQueue<>(queueCapacity);
+  }
+
+  void export() throws IOException, InterruptedException {
+    startNanos = System.nanoTime();
+    ExecutorService executor = Executors.newFixedThreadPool(1 + decoderThreads + writerThreads);
+    ExecutorCompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+    List<Future<Void>> stages = new ArrayList<>();
+    try {
+      stages.add(completionService.submit(this::readTopics));
+      for (int i = 0; i < decoderThreads; i++) {
+        stages.add(completionService.submit(this::decodeTopics));
+      }
+      for (int i = 0; i < writerThreads; i++) {
+        stages.add(completionService.submit(this::writeTopics));
+      }
+
+      // Wait for every stage, giving up on the rest as soon as any one fails
+      for (int i = 0; i < stages.size(); i++) {
+        try {
+          completionService.take().get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          if (e.getCause() instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) e.getCause()).getCause();
+          }
+          throw new RuntimeException("Export of " + document.getOriginalName() + " failed", e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private Void readTopics() throws IOException, InterruptedException {
+    for (int topic : document.topicMap.getTopicsInFileOrder()) {
+      long start = System.nanoTime();
+      byte[] compressedText = document.readCompressedTopic(topic);
+      readStage.recordItem(start, compressedText.length);
+      compressedTopics.put(new CompressedTopic(topic, compressedText));
+    }
+    for (int i = 0; i < decoderThreads; i++) {
+      compressedTopics.put(END_OF_COMPRESSED_TOPICS);
+    }
+    return null;
+  }
+
+  private Void decodeTopics() throws InterruptedException {
+    while (true) {
+      CompressedTopic compressedTopic = compressedTopics.take();
+      if (compressedTopic == END_OF_COMPRESSED_TOPICS) {
+        break;
+      }
+
+      long start = System.nanoTime();
+      List<HelpTopicLine> text = document.decoder.decode(compressedTopic.topic, compressedTopic.compressedText);
+      decodeStage.recordItem(start, TopicDecoder.getDecompressedLength(compressedTopic.compressedText));
+      decodedTopics.put(new HelpTopic(compressedTopic.topic, text));
+    }
+
+    // The last decoder to finish tells the writers there is nothing more to come
+    synchronized (this) {
+      if (++finishedDecoders == decoderThreads) {
+        for (int i = 0; i < writerThreads; i++) {
+          decodedTopics.put(END_OF_DECODED_TOPICS);
+        }
+      }
+    }
+    return null;
+  }
+
+  private Void writeTopics() throws InterruptedException {
+    while (true) {
+      HelpTopic topic = decodedTopics.take();
+      if (topic == END_OF_DECODED_TOPICS) {
+        break;
+      }
+
+      long start = System.nanoTime();
+      File topicFile = new File(outputDirectory,
+              "TOPIC_" + topic.getLocalContextId() + "." + format.getFileExtension());
+      HtmlTopicExtractor.outputTopic(document, topic, topicFile, format, globalContextId -> null);
+      writeStage.recordItem(start, topicFile.length());
+      firstOutputNanos.compareAndSet(0, System.nanoTime());
+    }
+    return null;
+  }
+
+  void outputStatistics(PrintStream out) {
+    out.printf("First output after   : %.1f ms\n", (firstOutputNanos.get() - startNanos) / 1e6);
+    out.printf("stage           topics      bytes   busy ms   wall ms   topics/s      MB/s\n");
+    for (StageStatistics stage : new StageStatistics[] { readStage, decodeStage, writeStage }) {
+      long items = stage.itemCount.sum();
+      long bytes = stage.byteCount.sum();
+      double wallSeconds = Math.max(1, stage.lastItemNanos.get() - startNanos) / 1e9;
+      out.printf("%-12s %9d %10d %9.1f %9.1f %10.0f %9.2f\n", stage.name, items, bytes, stage.busyNanos.sum() / 1e6,
+              wallSeconds * 1e3, items / wallSeconds, bytes / wallSeconds / 1e6);
+    }
+  }
+}
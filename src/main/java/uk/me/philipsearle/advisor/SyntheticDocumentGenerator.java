@@ -0,0 +1,249 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates Advisor files of any size from random text, for stress testing and benchmarking the loader beyond the size
+ * of any real file. Topic text is generated on demand from the seed and the topic's local context ID, so documents of
+ * 65535 topics can be written without holding their text in memory, and the same settings always give the same file.
+ * <p>
+ * Words are drawn from a fixed vocabulary with a Zipf distribution, like natural text, so the keyword table and Huffman
+ * coding have realistic statistics to work with.
+ */
+class SyntheticDocumentGenerator {
+
+  /** Generation settings, with defaults that give a document broadly like the MS-DOS help files. */
+  static class Settings {
+    int topicCount = 1000;
+    int minLines = 5;
+    int maxLines = 40;
+    int lineLength = 76;
+
+    /** Fraction of words given a bold, italic or underline style. */
+    double styleDensity = 0.1;
+
+    /** Fraction of words linked to another topic by local context ID. */
+    double localXrefDensity = 0.02;
+
+    /** Fraction of words linked to another topic by global context ID. */
+    double globalXrefDensity = 0.01;
+
+    /** Fraction of topics that have a global context ID. */
+    double globalIdFraction = 0.25;
+
+    boolean keywordTable = true;
+    boolean runLengthEncoding = true;
+    boolean huffmanCoding = true;
+    long seed = 1;
+  }
+
+  private static final String[] COMMON_WORDS = ("the of and to a in is it you that for on are with as be this "
+          + "or by from at can not an if use press key help topic menu file text line command window select "
+          + "program value statement function variable string number list type name example see also error "
+          + "option screen display print run edit save open new copy paste cut find change set return when "
+          + "each then which all more one two into will has have your must only used using other following "
+          + "mode data output input dialog box cursor mouse keyboard character first last next previous").split(" ");
+
+  private static final String[] SYLLABLES = { "ba", "ce", "di", "fo", "gu", "ha", "ke", "li", "mo", "nu", "pa", "re",
+          "si", "to", "va", "we", "xi", "yo", "za", "qu", "st", "ar", "en", "or" };
+
+  private static final int VOCABULARY_SIZE = 4096;
+
+  /** The box drawing character used for horizontal rules, as in the original help files. */
+  private static final char RULE = '\u2500';
+
+  private final Charset charset;
+  private final Settings settings;
+  private final String[] vocabulary;
+  private final double[] cumulativeWeights;
+  private final List<String> globalContextIds = new ArrayList<>();
+  private final CaseInsensitiveHashMap<HelpTopic> globalContextMap = new CaseInsensitiveHashMap<>();
+  private final List<HelpTopic> topics;
+
+  SyntheticDocumentGenerator(Charset charset, Settings settings) {
+    if (settings.topicCount < 1 || settings.topicCount > 0xffff) {
+      throw new IllegalArgumentException("Topic count must be between 1 and 65535, not " + settings.topicCount);
+    }
+    if (settings.lineLength < 1 || settings.lineLength > TopicEncoder.MAX_FIELD_LENGTH) {
+      throw new IllegalArgumentException("Line length must be between 1 and " + TopicEncoder.MAX_FIELD_LENGTH);
+    }
+    if (settings.minLines < 0 || settings.maxLines < settings.minLines) {
+      throw new IllegalArgumentException("Line counts must satisfy 0 <= min <= max");
+    }
+    this.charset = charset;
+    this.settings = settings;
+
+    Random random = new Random(settings.seed);
+    vocabulary = new String[VOCABULARY_SIZE];
+    cumulativeWeights = new double[VOCABULARY_SIZE];
+    double total = 0;
+    for (int rank = 0; rank < VOCABULARY_SIZE; rank++) {
+      vocabulary[rank] = rank < COMMON_WORDS.length ? COMMON_WORDS[rank] : makeWord(random, rank);
+      total += 1.0 / (rank + 1);
+      cumulativeWeights[rank] = total;
+    }
+
+    topics = new AbstractList<HelpTopic>() {
+      @Override
+      public HelpTopic get(int index) {
+        return new HelpTopic(index, null) {
+          @Override
+          public List<HelpTopicLine> getText() {
+            return generateTopic(index);
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return settings.topicCount;
+      }
+    };
+
+    for (int topic = 0; topic < settings.topicCount; topic++) {
+      if (topic == 0 || random.nextDouble() < settings.globalIdFraction) {
+        String globalContextId = topic == 0 ? "h.contents" : "syn." + pickWord(random) + "." + topic;
+        globalContextIds.add(globalContextId);
+        globalContextMap.put(globalContextId, topics.get(topic));
+      }
+    }
+  }
+
+  /** Makes a distinct pseudo-word from syllables, based on its rank so no two ranks collide. */
+  private static String makeWord(Random random, int rank) {
+    StringBuilder word = new StringBuilder();
+    for (int remaining = rank; remaining > 0; remaining /= SYLLABLES.length) {
+      word.append(SYLLABLES[remaining % SYLLABLES.length]);
+    }
+    return random.nextInt(8) == 0 ? word.substring(0, 1).toUpperCase(Locale.UK) + word.substring(1) : word.toString();
+  }
+
+  private String pickWord(Random random) {
+    int rank = Arrays.binarySearch(cumulativeWeights, random.nextDouble() * cumulativeWeights[VOCABULARY_SIZE - 1]);
+    return vocabulary[rank >= 0 ? rank : Math.min(-rank - 1, VOCABULARY_SIZE - 1)];
+  }
+
+  /** Returns a document whose topics are generated each time their text is accessed. */
+  AdvisorDocument getDocument() {
+    return new AdvisorDocumentImpl(':', settings.lineLength, "SYNTH.HLP", topics, globalContextMap);
+  }
+
+  /** Returns the most common words of the vocabulary, which make the best keyword table for generated text. */
+  List<byte[]> getKeywordTable() {
+    if (!settings.keywordTable) {
+      return Collections.emptyList();
+    }
+    List<byte[]> keywordTable = new ArrayList<>();
+    for (int rank = 0; rank < 1024; rank++) {
+      keywordTable.add(vocabulary[rank].getBytes(charset));
+    }
+    return keywordTable;
+  }
+
+  void write(File file) throws IOException {
+    TopicEncoder encoder = new TopicEncoder(charset, getKeywordTable(), false, settings.runLengthEncoding);
+    new AdvisorDocumentWriter(encoder, settings.huffmanCoding).write(getDocument(), file);
+  }
+
+  private List<HelpTopicLine> generateTopic(int topic) {
+    Random random = new Random(settings.seed * 0x9e3779b97f4a7c15L + topic);
+    int lineCount = settings.minLines + random.nextInt(settings.maxLines - settings.minLines + 1);
+    List<HelpTopicLine> lines = new ArrayList<>(lineCount);
+    for (int line = 0; line < lineCount; line++) {
+      double kind = random.nextDouble();
+      if (kind < 0.1) {
+        lines.add(new HelpTopicLine("", new byte[] { 0 }));
+      } else if (kind < 0.15) {
+        char[] rule = new char[settings.lineLength];
+        Arrays.fill(rule, RULE);
+        lines.add(new HelpTopicLine(new String(rule), new byte[] { 0 }));
+      } else {
+        int indent = kind < 0.3 ? Math.min(2 + random.nextInt(7), settings.lineLength - 1) : 0;
+        lines.add(generateLine(random, indent));
+      }
+    }
+    return lines;
+  }
+
+  private HelpTopicLine generateLine(Random random, int indent) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < indent; i++) {
+      text.append(' ');
+    }
+
+    // Word positions, so styles and links can be applied to whole words
+    List<int[]> words = new ArrayList<>();
+    int targetLength = Math.max(indent + 1, settings.lineLength / 2 + random.nextInt(settings.lineLength / 2 + 1));
+    while (true) {
+      String word = pickWord(random);
+      int start = text.length() + (text.length() > indent ? 1 : 0);
+      if (start + word.length() > Math.min(targetLength, settings.lineLength)) {
+        break;
+      }
+      if (start > text.length()) {
+        text.append(' ');
+      }
+      text.append(word);
+      words.add(new int[] { start, text.length() });
+    }
+
+    ByteArrayOutputStream styles = new ByteArrayOutputStream();
+    ByteArrayOutputStream xrefs = new ByteArrayOutputStream();
+    styles.write(0);
+    int styledTo = 0;
+    for (int[] word : words) {
+      // Leave room for the 0xff separator and the longest global link
+      if (styles.size() + xrefs.size() + 40 > TopicEncoder.MAX_FIELD_LENGTH) {
+        break;
+      }
+
+      if (random.nextDouble() < settings.styleDensity) {
+        writePlainRun(styles, word[0] - styledTo);
+        styles.write(1 + random.nextInt(7));
+        styles.write(word[1] - word[0]);
+        styledTo = word[1];
+      }
+
+      double link = random.nextDouble();
+      if (link < settings.localXrefDensity) {
+        int target = random.nextInt(settings.topicCount);
+        xrefs.write(word[0] + 1);
+        xrefs.write(word[1]);
+        xrefs.write(0);
+        xrefs.write(target & 0xff);
+        xrefs.write(target >> 8);
+      } else if (link < settings.localXrefDensity + settings.globalXrefDensity) {
+        byte[] target = globalContextIds.get(random.nextInt(globalContextIds.size())).getBytes(charset);
+        xrefs.write(word[0] + 1);
+        xrefs.write(word[1]);
+        xrefs.write(target, 0, target.length);
+        xrefs.write(0);
+      }
+    }
+    if (xrefs.size() > 0) {
+      styles.write(0xff);
+      styles.write(xrefs.toByteArray(), 0, xrefs.size());
+    }
+    return new HelpTopicLine(text.toString(), styles.toByteArray());
+  }
+
+  /** Writes unstyled runs covering a gap between styled words, splitting them as run lengths are signed bytes. */
+  private static void writePlainRun(ByteArrayOutputStream styles, int length) {
+    while (length > 0) {
+      int runLength = Math.min(length, 0x7f);
+      styles.write(0);
+      styles.write(runLength);
+      length -= runLength;
+    }
+  }
+}
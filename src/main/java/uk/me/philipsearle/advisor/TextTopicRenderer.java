@@ -0,0 +1,42 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes a topic's text alone, without styles or links.
+ */
+class TextTopicRenderer implements TopicRenderer {
+  static final TopicRenderer.Factory FACTORY = new TopicRenderer.Factory() {
+    @Override
+    public String getName() {
+      return "text";
+    }
+
+    @Override
+    public String getFileExtension() {
+      return "TXT";
+    }
+
+    @Override
+    public TopicRenderer newRenderer(Writer out) {
+      return new TextTopicRenderer(out);
+    }
+  };
+
+  private final Writer out;
+
+  TextTopicRenderer(Writer out) {
+    this.out = out;
+  }
+
+  @Override
+  public void text(String text, int start, int end) throws IOException {
+    out.write(text, start, end - start);
+  }
+
+  @Override
+  public void endLine() throws IOException {
+    out.write('\n');
+  }
+}
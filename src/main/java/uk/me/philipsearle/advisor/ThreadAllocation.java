@@ -0,0 +1,39 @@
+package uk.me.philipsearle.advisor;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Reads the number of bytes allocated by the current thread, where the JVM's {@code com.sun.management.ThreadMXBean}
+ * supports it. Taking the difference between two readings on the same thread gives the allocation of the code in
+ * between, including garbage that has already been collected.
+ */
+final class ThreadAllocation {
+  private static final com.sun.management.ThreadMXBean threadBean = findThreadBean();
+
+  private ThreadAllocation() {
+  }
+
+  private static com.sun.management.ThreadMXBean findThreadBean() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return null;
+    }
+    com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+    if (!sunBean.isThreadAllocatedMemorySupported()) {
+      return null;
+    }
+    sunBean.setThreadAllocatedMemoryEnabled(true);
+    return sunBean;
+  }
+
+  static boolean isSupported() {
+    return threadBean != null;
+  }
+
+  /**
+   * @return the bytes allocated so far by the current thread, or -1 if this JVM can't measure it
+   */
+  static long getAllocatedBytes() {
+    return threadBean != null ? threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+  }
+}
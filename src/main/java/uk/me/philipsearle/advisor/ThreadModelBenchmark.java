@@ -0,0 +1,104 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Compares a batch export on a pool of platform threads with one on virtual threads, a thread per document and per
+ * topic. Iterations alternate between the two, after one discarded warm-up iteration of each, so that both see the same
+ * state of the page cache and JIT. Each writes to its own subdirectory of the output directory, which is overwritten by
+ * every iteration. On Java 8 to 20 only the platform threads are measured.
+ */
+class ThreadModelBenchmark {
+  private static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  });
+
+  /** Timings of one way of running the export. */
+  private static class Mode {
+    final String name;
+    final boolean virtualThreads;
+    long totalNanos;
+    long minNanos = Long.MAX_VALUE;
+    long maxNanos;
+    long topics;
+    long inputBytes;
+    int failures;
+
+    Mode(String name, boolean virtualThreads) {
+      this.name = name;
+      this.virtualThreads = virtualThreads;
+    }
+  }
+
+  private final Charset charset;
+  private final Path inputDirectory;
+  private final Path outputDirectory;
+  private final int threads;
+  private final int maxDocumentsInFlight;
+  private final int iterations;
+
+  ThreadModelBenchmark(Charset charset, Path inputDirectory, Path outputDirectory, int threads,
+          int maxDocumentsInFlight, int iterations) {
+    if (iterations < 1) {
+      throw new IllegalArgumentException("Need at least one iteration");
+    }
+    this.charset = charset;
+    this.inputDirectory = inputDirectory;
+    this.outputDirectory = outputDirectory;
+    this.threads = threads;
+    this.maxDocumentsInFlight = maxDocumentsInFlight;
+    this.iterations = iterations;
+  }
+
+  void run(PrintStream out) throws IOException, InterruptedException {
+    Mode platform = new Mode("platform", false);
+    Mode virtual = new Mode("virtual", true);
+    Mode[] modes = VirtualThreads.isAvailable() ? new Mode[] { platform, virtual } : new Mode[] { platform };
+    if (modes.length == 1) {
+      out.println("Virtual threads need Java 21 or later; measuring platform threads only");
+    }
+    out.printf("Files: %d, platform threads: %d, max in flight: %d, iterations: %d\n\n",
+            BatchExporter.findDocuments(inputDirectory).size(), threads, maxDocumentsInFlight, iterations);
+
+    for (int iteration = -1; iteration < iterations; iteration++) {
+      for (Mode mode : modes) {
+        BatchExporter exporter = new BatchExporter(charset, threads, maxDocumentsInFlight, mode.virtualThreads);
+        long start = System.nanoTime();
+        exporter.export(inputDirectory, outputDirectory.resolve(mode.name), DISCARD);
+        long nanos = System.nanoTime() - start;
+        if (iteration >= 0) {
+          mode.totalNanos += nanos;
+          mode.minNanos = Math.min(mode.minNanos, nanos);
+          mode.maxNanos = Math.max(mode.maxNanos, nanos);
+          mode.topics += exporter.getTopicCount();
+          mode.inputBytes += exporter.getInputBytes();
+          mode.failures += exporter.getFailureCount();
+        }
+      }
+    }
+
+    out.printf("%-10s %10s %10s %10s %12s %10s %8s\n", "Threads", "Mean ms", "Min ms", "Max ms", "Topics/s", "MB/s",
+            "Failed");
+    for (Mode mode : modes) {
+      double seconds = mode.totalNanos / 1e9;
+      out.printf(Locale.ROOT, "%-10s %10.1f %10.1f %10.1f %12.0f %10.2f %8d\n", mode.name,
+              mode.totalNanos / 1e6 / iterations, mode.minNanos / 1e6, mode.maxNanos / 1e6, mode.topics / seconds,
+              mode.inputBytes / 1e6 / seconds, mode.failures);
+    }
+    if (modes.length == 2) {
+      out.printf(Locale.ROOT, "\nVirtual threads took %.2fx the time of platform threads\n",
+              (double) virtual.totalNanos / platform.totalNanos);
+    }
+  }
+}
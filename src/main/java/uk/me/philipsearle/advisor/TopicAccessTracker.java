@@ -0,0 +1,48 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+/**
+ * Counts how often each topic of a document is looked up, so that the most popular topics can be recorded in a
+ * {@link WarmUpProfile} and decoded ahead of time on the next start.
+ */
+public class TopicAccessTracker {
+  /** Access counts, indexed by local context ID. */
+  private final AtomicLongArray counts;
+
+  TopicAccessTracker(int topicCount) {
+    this.counts = new AtomicLongArray(topicCount);
+  }
+
+  void recordAccess(int topic) {
+    counts.incrementAndGet(topic);
+  }
+
+  public int getTopicCount() {
+    return counts.length();
+  }
+
+  public long getAccessCount(int topic) {
+    return counts.get(topic);
+  }
+
+  /**
+   * Returns up to {@code limit} topics that have been accessed at least once, most frequently accessed first. Ties are
+   * broken by local context ID so the result is stable.
+   */
+  public int[] getHottestTopics(int limit) {
+    long[] snapshot = new long[counts.length()];
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+    }
+
+    return IntStream.range(0, snapshot.length)
+            .filter(topic -> snapshot[topic] > 0)
+            .boxed()
+            .sorted((a, b) -> snapshot[a] != snapshot[b] ? Long.compare(snapshot[b], snapshot[a]) : Integer.compare(a, b))
+            .limit(limit)
+            .mapToInt(Integer::intValue)
+            .toArray();
+  }
+}
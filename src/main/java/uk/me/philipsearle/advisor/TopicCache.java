@@ -0,0 +1,53 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the decoded text of an on-demand document's topics, keyed by local context ID. Implementations must be safe
+ * for concurrent use, and may drop topics at any time.
+ */
+interface TopicCache {
+  /** Returns the cached text of a topic, or null if it isn't cached. */
+  List<HelpTopicLine> get(int topic);
+
+  /** Returns whether a topic is cached, without counting it as an access. */
+  boolean contains(int topic);
+
+  /**
+   * Offers decoded text to the cache.
+   *
+   * @return the text already cached by another thread if there is one, otherwise the given text
+   */
+  List<HelpTopicLine> putIfAbsent(int topic, List<HelpTopicLine> text);
+
+  /** Returns the number of topics currently cached. */
+  int size();
+
+  /** Returns a cache that keeps every topic for the life of the document. */
+  static TopicCache unbounded() {
+    ConcurrentHashMap<Integer, List<HelpTopicLine>> topics = new ConcurrentHashMap<>();
+    return new TopicCache() {
+      @Override
+      public List<HelpTopicLine> get(int topic) {
+        return topics.get(topic);
+      }
+
+      @Override
+      public boolean contains(int topic) {
+        return topics.containsKey(topic);
+      }
+
+      @Override
+      public List<HelpTopicLine> putIfAbsent(int topic, List<HelpTopicLine> text) {
+        List<HelpTopicLine> existing = topics.putIfAbsent(topic, text);
+        return existing != null ? existing : text;
+      }
+
+      @Override
+      public int size() {
+        return topics.size();
+      }
+    };
+  }
+}
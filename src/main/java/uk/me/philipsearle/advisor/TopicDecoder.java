@@ -0,0 +1,173 @@
+package uk.me.philipsearle.advisor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decompresses and splits topic text into lines using a document's keyword and Huffman tables. Instances are immutable
+ * once constructed so a single decoder can be shared by threads decoding different topics.
+ */
+class TopicDecoder {
+  /** The character set to use when decoding text from the file. */
+  private final Charset charset;
+
+  private final List<byte[]> keywordTable;
+
+  private final List<Integer> huffmanTable;
+
+  /** Where decoded text is shared with other documents, or null if every topic gets its own copy. */
+  private final TopicStore topicStore;
+
+  TopicDecoder(Charset charset, List<byte[]> keywordTable, List<Integer> huffmanTable, TopicStore topicStore) {
+    this.charset = charset;
+    this.keywordTable = keywordTable;
+    this.huffmanTable = huffmanTable;
+    this.topicStore = topicStore;
+  }
+
+  Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * Size of a buffer that can hold any decompressed topic. The decompressed length is stored in a WORD, plus room for
+   * a final keyword or run that overshoots the stated length.
+   */
+  static final int SCRATCH_LENGTH = 0xffff + 0x100;
+
+  /**
+   * @param topic the local context ID of the topic, used only to identify it in flight recorder events
+   */
+  List<HelpTopicLine> decode(int topic, byte[] compressedTopic) {
+    Object event = DocumentEvents.beginTopicDecode();
+    byte[] decompressedTopic = decompress(compressedTopic);
+    List<HelpTopicLine> text = extractOrShare(decompressedTopic, decompressedTopic.length);
+    DocumentEvents.endTopicDecode(event, topic, compressedTopic.length, decompressedTopic.length);
+    return text;
+  }
+
+  /**
+   * Decodes a topic using a caller-supplied buffer for the decompressed text instead of allocating one.
+   *
+   * @param scratch a buffer of at least {@link #SCRATCH_LENGTH} bytes
+   */
+  List<HelpTopicLine> decode(int topic, byte[] compressedTopic, byte[] scratch) {
+    Object event = DocumentEvents.beginTopicDecode();
+    int decompressedLength = decompress(compressedTopic, scratch);
+    List<HelpTopicLine> text = extractOrShare(scratch, decompressedLength);
+    DocumentEvents.endTopicDecode(event, topic, compressedTopic.length, decompressedLength);
+    return text;
+  }
+
+  byte[] decompress(byte[] compressedTopic) {
+    byte[] buffer = new byte[getDecompressedLength(compressedTopic)];
+    decompress(compressedTopic, buffer);
+    return buffer;
+  }
+
+  static int getDecompressedLength(byte[] compressedTopic) {
+    return (compressedTopic[0] & 0xff) | ((compressedTopic[1] & 0xff) << 8);
+  }
+
+  /**
+   * Decompresses a topic into the start of the given buffer.
+   *
+   * @return the decompressed length
+   */
+  int decompress(byte[] compressedTopic, byte[] buffer) {
+    int charCount = getDecompressedLength(compressedTopic);
+    int bufferIndex = 0;
+
+    CompresedTopicIterator it = new CompresedTopicIterator(huffmanTable, compressedTopic, 2);
+    while (bufferIndex < charCount) {
+      int c = it.nextByte();
+
+      if (c < 0x10 || c > 0x1a) {
+        buffer[bufferIndex++] = (byte) c;
+        continue;
+      }
+
+      int command = c - 0x10;
+      int parameter = it.nextByte();
+      switch (command) {
+        case 0:
+        case 1:
+        case 2:
+        case 3:
+        case 4:
+        case 5:
+        case 6:
+        case 7: {
+          // keyword from table
+          int tableIndex = command & 0x03;
+          byte[] keyword = keywordTable.get(parameter + 256 * tableIndex);
+          for (byte element : keyword) {
+            buffer[bufferIndex++] = element;
+          }
+
+          if (command >= 4) {
+            // keyword from table (with space)
+            buffer[bufferIndex++] = (byte) ' ';
+          }
+          break;
+        }
+        case 8: {
+          // RLE (spaces)
+          for (int count = 0; count < parameter; count++) {
+            buffer[bufferIndex++] = (byte) ' ';
+          }
+          break;
+        }
+        case 9: {
+          // RLE (arbitrary char)
+          int repeatChar = parameter;
+          parameter = it.nextByte();
+          for (int count = 0; count < parameter; count++) {
+            buffer[bufferIndex++] = (byte) repeatChar;
+          }
+          break;
+        }
+        case 10: {
+          // Output literal
+          buffer[bufferIndex++] = (byte) parameter;
+          break;
+        }
+        default:
+          throw new IllegalStateException("Unsupported compression command: " + command);
+      }
+    }
+
+    return charCount;
+  }
+
+  private List<HelpTopicLine> extractOrShare(byte[] decompressedTopic, int length) {
+    return topicStore == null ? extractTopicText(decompressedTopic, length)
+            : topicStore.intern(this, decompressedTopic, length);
+  }
+
+  List<HelpTopicLine> extractTopicText(byte[] decompressedTopic, int length) {
+    List<HelpTopicLine> topicText = new ArrayList<>();
+
+    int index = 0;
+    while (index < length) {
+      int lineLength = (decompressedTopic[index++] & 0xff) - 1;
+      StringBuilder text = new StringBuilder();
+
+      ByteBuffer textSpan = ByteBuffer.wrap(decompressedTopic, index, lineLength);
+      text.append(charset.decode(textSpan));
+      index += lineLength;
+
+      int attributesLength = (decompressedTopic[index++] & 0xff) - 1;
+      byte[] attributes = new byte[attributesLength];
+      for (int attributesIndex = 0; attributesIndex < attributesLength; attributesIndex++) {
+        attributes[attributesIndex] = decompressedTopic[index++];
+      }
+
+      topicText.add(new HelpTopicLine(text.toString(), attributes));
+    }
+
+    return topicText;
+  }
+}
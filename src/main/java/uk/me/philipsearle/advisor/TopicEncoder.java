@@ -0,0 +1,208 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The inverse of {@link TopicDecoder}: lays out a topic's lines as they are stored once decompressed, then applies
+ * phrase and run-length encoding. Huffman coding is applied separately by the writer, as its table depends on the
+ * encoded text of every topic. Instances are immutable so a single encoder can be shared by threads.
+ */
+class TopicEncoder {
+  /** The most a line's text or attributes can hold, as each is preceded by a length byte that includes itself. */
+  static final int MAX_FIELD_LENGTH = 0xfe;
+
+  /** The longest run a single run-length code can represent. */
+  private static final int MAX_RUN = 0xff;
+
+  private final Charset charset;
+  private final List<byte[]> keywordTable;
+  private final boolean extendedPhrases;
+  private final boolean runLengthEncoding;
+
+  /** Keyword table indices, keyed by the keyword's bytes as a Latin-1 string. */
+  private final Map<String, Integer> keywordIndices = new HashMap<>();
+
+  /**
+   * A trie of the keywords for extended phrase encoding. Each node has a slot for every byte value holding the index of
+   * the child node, or -1, and the node's keyword is the keyword that ends there, or -1.
+   */
+  private int[] trieChildren = new int[256];
+  private int[] trieKeywords = new int[1];
+  private int trieNodeCount = 1;
+
+  /**
+   * @param keywordTable the keywords to replace words with, or an empty list for no phrase encoding
+   * @param extendedPhrases whether keywords also replace parts of longer words, rather than only whole words
+   */
+  TopicEncoder(Charset charset, List<byte[]> keywordTable, boolean extendedPhrases, boolean runLengthEncoding) {
+    if (keywordTable.size() > 1024) {
+      throw new IllegalArgumentException("The keyword table holds at most 1024 entries, not " + keywordTable.size());
+    }
+    this.charset = charset;
+    this.keywordTable = keywordTable;
+    this.extendedPhrases = extendedPhrases;
+    this.runLengthEncoding = runLengthEncoding;
+    Arrays.fill(trieChildren, -1);
+    trieKeywords[0] = -1;
+    for (int i = 0; i < keywordTable.size(); i++) {
+      keywordIndices.putIfAbsent(new String(keywordTable.get(i), StandardCharsets.ISO_8859_1), i);
+      if (extendedPhrases) {
+        addToTrie(keywordTable.get(i), i);
+      }
+    }
+  }
+
+  private void addToTrie(byte[] keyword, int keywordIndex) {
+    int node = 0;
+    for (byte b : keyword) {
+      int slot = node * 256 + (b & 0xff);
+      if (trieChildren[slot] < 0) {
+        if (trieNodeCount == trieKeywords.length) {
+          trieKeywords = Arrays.copyOf(trieKeywords, trieNodeCount * 2);
+          trieChildren = Arrays.copyOf(trieChildren, trieNodeCount * 2 * 256);
+          Arrays.fill(trieChildren, trieNodeCount * 256, trieChildren.length, -1);
+        }
+        trieKeywords[trieNodeCount] = -1;
+        trieChildren[slot] = trieNodeCount++;
+      }
+      node = trieChildren[slot];
+    }
+    if (trieKeywords[node] < 0) {
+      trieKeywords[node] = keywordIndex;
+    }
+  }
+
+  Charset getCharset() {
+    return charset;
+  }
+
+  List<byte[]> getKeywordTable() {
+    return keywordTable;
+  }
+
+  /**
+   * Returns the topic as {@link TopicDecoder#extractTopicText(byte[], int)} expects to find it once decompressed.
+   */
+  byte[] serialize(List<HelpTopicLine> lines) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (HelpTopicLine line : lines) {
+      byte[] text = line.getText().getBytes(charset);
+      writeField(out, text);
+      writeField(out, line.getAttributes());
+    }
+    if (out.size() > 0xffff) {
+      throw new IllegalArgumentException("Topic is " + out.size() + " bytes long, more than a WORD can describe");
+    }
+    return out.toByteArray();
+  }
+
+  private static void writeField(ByteArrayOutputStream out, byte[] field) {
+    if (field.length > MAX_FIELD_LENGTH) {
+      throw new IllegalArgumentException("Line field is " + field.length + " bytes long, more than the "
+              + MAX_FIELD_LENGTH + " that can be stored");
+    }
+    out.write(field.length + 1);
+    out.write(field, 0, field.length);
+  }
+
+  /**
+   * Serializes a topic and applies phrase and run-length encoding to the text of each line. Length bytes and
+   * attributes are only escaped, so that no phrase or run ever spans a field boundary.
+   *
+   * @return the encoded topic, without the leading length WORD
+   */
+  byte[] encode(List<HelpTopicLine> lines) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (HelpTopicLine line : lines) {
+      byte[] text = line.getText().getBytes(charset);
+      byte[] attributes = line.getAttributes();
+      writeLiteral(out, text.length + 1);
+      encodeText(text, out);
+      writeLiteral(out, attributes.length + 1);
+      for (byte attribute : attributes) {
+        writeLiteral(out, attribute & 0xff);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private void encodeText(byte[] text, ByteArrayOutputStream out) {
+    int index = 0;
+    while (index < text.length) {
+      int c = text[index] & 0xff;
+
+      // The longest keyword starting here, optionally taking the following space with it
+      if (extendedPhrases && c != ' ') {
+        int node = 0;
+        int matchLength = 0;
+        int keyword = -1;
+        for (int i = index; i < text.length && text[i] != ' '; i++) {
+          node = trieChildren[node * 256 + (text[i] & 0xff)];
+          if (node < 0) {
+            break;
+          }
+          if (trieKeywords[node] >= 0) {
+            matchLength = i - index + 1;
+            keyword = trieKeywords[node];
+          }
+        }
+        boolean withSpace = index + matchLength < text.length && text[index + matchLength] == ' ';
+        // A code takes two bytes, so only use it when it replaces more than that
+        if (keyword >= 0 && matchLength + (withSpace ? 1 : 0) > 2) {
+          out.write(0x10 + (withSpace ? 4 : 0) + (keyword >> 8));
+          out.write(keyword & 0xff);
+          index += matchLength + (withSpace ? 1 : 0);
+          continue;
+        }
+      }
+
+      // Whole words found in the keyword table, optionally taking the following space with them
+      if (!extendedPhrases && !keywordIndices.isEmpty() && (index == 0 || text[index - 1] == ' ') && c != ' ') {
+        int wordEnd = index;
+        while (wordEnd < text.length && text[wordEnd] != ' ') {
+          wordEnd++;
+        }
+        Integer keyword = keywordIndices.get(new String(text, index, wordEnd - index, StandardCharsets.ISO_8859_1));
+        if (keyword != null) {
+          boolean withSpace = wordEnd < text.length;
+          out.write(0x10 + (withSpace ? 4 : 0) + (keyword >> 8));
+          out.write(keyword & 0xff);
+          index = withSpace ? wordEnd + 1 : wordEnd;
+          continue;
+        }
+      }
+
+      int runLength = 1;
+      while (index + runLength < text.length && (text[index + runLength] & 0xff) == c && runLength < MAX_RUN) {
+        runLength++;
+      }
+      if (runLengthEncoding && c == ' ' && runLength >= 3) {
+        out.write(0x18);
+        out.write(runLength);
+        index += runLength;
+      } else if (runLengthEncoding && runLength >= 4) {
+        out.write(0x19);
+        out.write(c);
+        out.write(runLength);
+        index += runLength;
+      } else {
+        writeLiteral(out, c);
+        index++;
+      }
+    }
+  }
+
+  /** Writes a byte that is output as-is, escaping it if it would otherwise be read as a control code. */
+  private static void writeLiteral(ByteArrayOutputStream out, int c) {
+    if (c >= 0x10 && c <= 0x1a) {
+      out.write(0x1a);
+    }
+    out.write(c);
+  }
+}
@@ -0,0 +1,56 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.stream.IntStream;
+
+/**
+ * The location of each topic's compressed text within a document file. The topic map in the file is indexed by local
+ * context ID and need not be in offset order, so topic lengths are derived from neighbouring topics in offset order.
+ */
+class TopicMap {
+  /** Topic offsets, indexed by local context ID. */
+  private final long[] topicOffsets;
+
+  /** Compressed topic lengths, indexed by local context ID. */
+  private final int[] topicLengths;
+
+  /** Local context IDs in ascending offset order. */
+  private final int[] fileOrder;
+
+  TopicMap(long[] offsets, long documentEndOffset) {
+    topicOffsets = offsets.clone();
+    fileOrder = IntStream.range(0, offsets.length)
+            .boxed()
+            .sorted((a, b) -> Long.compare(offsets[a], offsets[b]))
+            .mapToInt(Integer::intValue)
+            .toArray();
+
+    // The length of the compressed topic text must be calculated using the start of the next topic in the file (for
+    // the last topic we use the EOF). Topics sharing an offset share the same text, so look past them.
+    topicLengths = new int[offsets.length];
+    long nextOffset = documentEndOffset;
+    for (int i = fileOrder.length - 1; i >= 0; i--) {
+      long offset = offsets[fileOrder[i]];
+      if (i + 1 < fileOrder.length && offsets[fileOrder[i + 1]] > offset) {
+        nextOffset = offsets[fileOrder[i + 1]];
+      }
+      topicLengths[fileOrder[i]] = (int) (nextOffset - offset);
+    }
+  }
+
+  int getTopicCount() {
+    return topicOffsets.length;
+  }
+
+  long getOffset(int topic) {
+    return topicOffsets[topic];
+  }
+
+  int getLength(int topic) {
+    return topicLengths[topic];
+  }
+
+  /** Returns the local context IDs of all topics, ordered by their offset in the file. */
+  int[] getTopicsInFileOrder() {
+    return fileOrder.clone();
+  }
+}
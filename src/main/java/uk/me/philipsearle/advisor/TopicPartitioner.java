@@ -0,0 +1,45 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Deterministically splits the topics of a document into shards of roughly equal work. Topics are weighed by their
+ * compressed size from the topic map and assigned largest first to the least loaded shard, so every process that
+ * partitions the same file with the same shard count gets the same assignment without coordinating.
+ */
+class TopicPartitioner {
+
+  private TopicPartitioner() {
+  }
+
+  /**
+   * @return the zero-based shard of each topic, indexed by local context ID
+   */
+  static int[] assignShards(TopicMap topicMap, int shardCount) {
+    int topicCount = topicMap.getTopicCount();
+    int[] bySizeDescending = IntStream.range(0, topicCount)
+            .boxed()
+            .sorted((a, b) -> topicMap.getLength(a) != topicMap.getLength(b)
+                    ? Integer.compare(topicMap.getLength(b), topicMap.getLength(a))
+                    : Integer.compare(a, b))
+            .mapToInt(Integer::intValue)
+            .toArray();
+
+    // Each entry is {load, shard}; ties on load go to the lowest numbered shard
+    PriorityQueue<long[]> shards = new PriorityQueue<>(shardCount,
+            (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+    for (int shard = 0; shard < shardCount; shard++) {
+      shards.add(new long[] { 0, shard });
+    }
+
+    int[] assignment = new int[topicCount];
+    for (int topic : bySizeDescending) {
+      long[] leastLoaded = shards.poll();
+      assignment[topic] = (int) leastLoaded[1];
+      leastLoaded[0] += topicMap.getLength(topic);
+      shards.add(leastLoaded);
+    }
+    return assignment;
+  }
+}
@@ -0,0 +1,176 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decodes the likely next topics of an {@link OnDemandAdvisorDocument} in the background. When a topic is fetched, the
+ * targets of its links are decoded into the document's topic cache on a low-priority thread, so that following a link
+ * usually finds the topic already decoded.
+ */
+public class TopicPrefetcher {
+  private static final AtomicInteger threadNumber = new AtomicInteger();
+
+  private final OnDemandAdvisorDocument document;
+
+  /** The maximum number of link targets to prefetch per fetched topic. */
+  private final int fanOut;
+
+  /** Limits the number of prefetches that are queued or running. */
+  private final Semaphore inFlight;
+
+  private final ExecutorService executor;
+  private volatile boolean closed;
+
+  /** Topics that have been prefetched but not yet fetched on demand. */
+  private final Set<Integer> prefetchedTopics = ConcurrentHashMap.newKeySet();
+
+  /** Topics currently queued or being decoded, so the same topic isn't prefetched twice at once. */
+  private final Set<Integer> pendingTopics = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder scheduledCount = new LongAdder();
+  private final LongAdder droppedCount = new LongAdder();
+  private final LongAdder prefetchedCount = new LongAdder();
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+
+  TopicPrefetcher(OnDemandAdvisorDocument document, int fanOut, int maxInFlight) {
+    this.document = document;
+    this.fanOut = fanOut;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.executor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "topic-prefetch-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+  }
+
+  /** Number of prefetches submitted to the background executor. */
+  public long getScheduledCount() {
+    return scheduledCount.sum();
+  }
+
+  /** Number of prefetches skipped because the in-flight limit had been reached. */
+  public long getDroppedCount() {
+    return droppedCount.sum();
+  }
+
+  /** Number of topics decoded by the prefetcher. */
+  public long getPrefetchedCount() {
+    return prefetchedCount.sum();
+  }
+
+  /** Number of on-demand fetches that found a topic the prefetcher had decoded. */
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  /** Number of on-demand fetches that had to decode the topic synchronously. */
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  /** The fraction of first-time topic fetches that were served by a prefetch. */
+  public double getHitRate() {
+    long hits = getHitCount();
+    long total = hits + getMissCount();
+    return total == 0 ? 0.0 : (double) hits / total;
+  }
+
+  /** Number of prefetched topics that have not (yet) been fetched on demand. */
+  public long getUnusedCount() {
+    return prefetchedTopics.size();
+  }
+
+  void topicFetched(int topic, List<HelpTopicLine> text, boolean cached) {
+    if (!cached) {
+      missCount.increment();
+    } else if (prefetchedTopics.remove(topic)) {
+      hitCount.increment();
+    }
+
+    Set<Integer> targets = new LinkedHashSet<>();
+    collectTargets:
+    for (HelpTopicLine line : text) {
+      for (HelpTopicLine.Xref xref : line.getXrefs()) {
+        int target = resolve(xref);
+        if (target >= 0 && target != topic && !document.isCached(target)) {
+          targets.add(target);
+          if (targets.size() >= fanOut) {
+            break collectTargets;
+          }
+        }
+      }
+    }
+
+    for (int target : targets) {
+      schedule(target);
+    }
+  }
+
+  private int resolve(HelpTopicLine.Xref xref) {
+    if (xref.localContextLink.isPresent()) {
+      int target = xref.localContextLink.get();
+      return target < document.getTopics().size() ? target : -1;
+    }
+    HelpTopic target = document.getGlobalContextMap().get(xref.globalContextLink.get());
+    return target != null ? (int) target.getLocalContextId() : -1;
+  }
+
+  private void schedule(int topic) {
+    if (!pendingTopics.add(topic)) {
+      return;
+    }
+    if (!inFlight.tryAcquire()) {
+      pendingTopics.remove(topic);
+      droppedCount.increment();
+      return;
+    }
+
+    try {
+      executor.execute(() -> {
+        try {
+          if (!closed && !document.isCached(topic)) {
+            List<HelpTopicLine> text = document.decodeTopic(topic);
+            // Marked before caching so that a fetch straight after counts as a hit, and unmarked if an on-demand
+            // fetch cached its own copy first
+            prefetchedTopics.add(topic);
+            if (document.cacheTopic(topic, text) == text) {
+              prefetchedCount.increment();
+            } else {
+              prefetchedTopics.remove(topic);
+            }
+          }
+        } catch (RuntimeException e) {
+          // A failed prefetch is not an error: the topic will be decoded (and the failure reported) on demand
+        } finally {
+          pendingTopics.remove(topic);
+          inFlight.release();
+        }
+      });
+      scheduledCount.increment();
+    } catch (RejectedExecutionException e) {
+      // Shut down while scheduling
+      pendingTopics.remove(topic);
+      inFlight.release();
+    }
+  }
+
+  /**
+   * Stops prefetching. Queued prefetches are skipped, but one already reading is left to finish: interrupting it would
+   * close the document's file channel.
+   */
+  void close() {
+    closed = true;
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,70 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Receives a topic as a series of callbacks and writes it out in some format. For each line there is a call to
+ * {@link #startLine()}, then calls for its text, styles and links, then {@link #endLine()}. Styles and links are
+ * properly nested, with links inside styles: a link that crosses a change of style arrives as one link per style run.
+ * <p>
+ * Renderers are made for one output by a {@link Factory}. Formats other than the built-in ones can be added by listing
+ * a factory in {@code META-INF/services/uk.me.philipsearle.advisor.TopicRenderer$Factory}.
+ */
+public interface TopicRenderer {
+  /** Style bits, as stored in the file. */
+  int BOLD = 0x01;
+  int ITALIC = 0x02;
+  int UNDERLINE = 0x04;
+
+  /** Makes renderers for one format. */
+  interface Factory {
+    /** The name used to choose the format on the command line, e.g. {@code markdown}. */
+    String getName();
+
+    /** The extension of exported topic files, without the dot. */
+    String getFileExtension();
+
+    TopicRenderer newRenderer(Writer out);
+  }
+
+  /**
+   * @param documentName the original name of the document, such as {@code QBASIC.HLP}
+   */
+  default void startTopic(String documentName, int localContextId) throws IOException {
+  }
+
+  default void startLine() throws IOException {
+  }
+
+  /** Writes the characters of {@code text} from {@code start} to before {@code end}. */
+  void text(String text, int start, int end) throws IOException;
+
+  /**
+   * @param style a combination of {@link #BOLD}, {@link #ITALIC} and {@link #UNDERLINE}, never 0
+   */
+  default void startStyle(int style) throws IOException {
+  }
+
+  default void endStyle() throws IOException {
+  }
+
+  /**
+   * Starts a link, which is one of: a topic in this document, a topic in another document, or a global context ID that
+   * can't be found.
+   *
+   * @param localContextId the topic linked to in this document, or -1
+   * @param globalContextId the global context ID linked to, or null for a link by local context ID
+   * @param externalTarget the target of a link to another document, as given by the exporter, or null
+   */
+  default void startLink(int localContextId, String globalContextId, String externalTarget) throws IOException {
+  }
+
+  default void endLink() throws IOException {
+  }
+
+  void endLine() throws IOException;
+
+  default void endTopic() throws IOException {
+  }
+}
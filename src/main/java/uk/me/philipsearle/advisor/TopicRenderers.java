@@ -0,0 +1,63 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.ServiceLoader;
+import java.util.function.Function;
+
+/**
+ * Finds renderers by name and renders topics through them. The built-in formats are {@code html}, {@code text},
+ * {@code markdown}, {@code json} and {@code ansi}; further formats are found with {@link ServiceLoader}.
+ */
+public final class TopicRenderers {
+  private static final List<TopicRenderer.Factory> BUILT_IN = Arrays.asList(HtmlTopicRenderer.FACTORY,
+          TextTopicRenderer.FACTORY, MarkdownTopicRenderer.FACTORY, JsonTopicRenderer.FACTORY,
+          AnsiTopicRenderer.FACTORY);
+
+  private TopicRenderers() {
+  }
+
+  public static TopicRenderer.Factory html() {
+    return HtmlTopicRenderer.FACTORY;
+  }
+
+  /** Returns the built-in formats followed by any others on the class path. */
+  public static List<TopicRenderer.Factory> getFactories() {
+    List<TopicRenderer.Factory> factories = new ArrayList<>(BUILT_IN);
+    for (TopicRenderer.Factory factory : ServiceLoader.load(TopicRenderer.Factory.class)) {
+      factories.add(factory);
+    }
+    return factories;
+  }
+
+  /**
+   * @throws IllegalArgumentException if there is no format with that name
+   */
+  public static TopicRenderer.Factory forName(String name) {
+    List<String> names = new ArrayList<>();
+    for (TopicRenderer.Factory factory : getFactories()) {
+      if (factory.getName().equalsIgnoreCase(name)) {
+        return factory;
+      }
+      names.add(factory.getName().toLowerCase(Locale.UK));
+    }
+    throw new IllegalArgumentException("Unknown format " + name + "; choose from " + String.join(", ", names));
+  }
+
+  /**
+   * Passes a whole topic to a renderer.
+   *
+   * @param externalLinks gives the link target for a global context ID that isn't in the document, or null
+   */
+  public static void render(AdvisorDocument document, HelpTopic topic, TopicRenderer renderer,
+          Function<String, String> externalLinks) throws IOException {
+    renderer.startTopic(document.getOriginalName(), (int) topic.getLocalContextId());
+    for (HelpTopicLine line : topic.getText()) {
+      line.render(renderer, document.getGlobalContextMap(), externalLinks);
+    }
+    renderer.endTopic();
+  }
+}
@@ -0,0 +1,364 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Searches a document's topics for literal strings or a regular expression, in parallel across topics. Each topic is
+ * decompressed into a per-thread buffer and its lines are searched where they lie in that buffer, as bytes of the
+ * document's single-byte character set, so no {@link HelpTopicLine} or string is made except for lines that match.
+ * <p>
+ * Hits are passed on as they are found, from several threads and in no particular order, and the search stops as soon
+ * as it has found as many as were asked for.
+ */
+class TopicSearcher {
+  private static final ThreadLocal<byte[]> scratchBuffers =
+          ThreadLocal.withInitial(() -> new byte[TopicDecoder.SCRATCH_LENGTH]);
+
+  /** A match within a line of a topic. */
+  static class Hit {
+    final int topic;
+
+    /** The zero-based line number within the topic. */
+    final int line;
+
+    /** The zero-based index of the first character of the match within the line. */
+    final int column;
+    final int length;
+    final String lineText;
+
+    Hit(int topic, int line, int column, int length, String lineText) {
+      this.topic = topic;
+      this.line = line;
+      this.column = column;
+      this.length = length;
+      this.lineText = lineText;
+    }
+  }
+
+  /** What to search for, prepared for one character set. Queries can search many documents at once. */
+  abstract static class Query {
+    final Charset charset;
+
+    /** The character each byte decodes to. */
+    final char[] characters;
+
+    Query(Charset charset) {
+      if (charset.newEncoder().maxBytesPerChar() != 1.0f) {
+        throw new IllegalArgumentException("Searching needs a single-byte character set, not " + charset);
+      }
+      this.charset = charset;
+      this.characters = new char[256];
+      CharsetDecoder decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      for (int b = 0; b < 256; b++) {
+        try {
+          characters[b] = decoder.reset().decode(ByteBuffer.wrap(new byte[] { (byte) b })).charAt(0);
+        } catch (CharacterCodingException e) {
+          throw new IllegalStateException("Replacing decoder reported an error", e);
+        }
+      }
+    }
+
+    /**
+     * Reports each match in a span of text, until the listener asks to stop.
+     *
+     * @return false if the listener asked to stop
+     */
+    abstract boolean find(byte[] text, int start, int end, AhoCorasickMatcher.MatchListener listener);
+
+    String decode(byte[] text, int start, int end) {
+      char[] decoded = new char[end - start];
+      for (int i = start; i < end; i++) {
+        decoded[i - start] = characters[text[i] & 0xff];
+      }
+      return new String(decoded);
+    }
+  }
+
+  private static class LiteralQuery extends Query {
+    private final AhoCorasickMatcher matcher;
+
+    LiteralQuery(Charset charset, List<String> literals, boolean ignoreCase) {
+      super(charset);
+      CharsetEncoder encoder = charset.newEncoder();
+      List<byte[]> patterns = new ArrayList<>();
+      for (String literal : literals) {
+        try {
+          ByteBuffer encoded = encoder.reset().encode(CharBuffer.wrap(literal));
+          byte[] pattern = new byte[encoded.remaining()];
+          encoded.get(pattern);
+          patterns.add(pattern);
+        } catch (CharacterCodingException e) {
+          throw new IllegalArgumentException("'" + literal + "' can't be written in " + charset, e);
+        }
+      }
+      matcher = new AhoCorasickMatcher(patterns, ignoreCase ? getLowerCaseFolding() : null);
+    }
+
+    /** Maps each byte to the byte of its lower-case character, where the character set has one. */
+    private byte[] getLowerCaseFolding() {
+      Map<Character, Integer> bytesByCharacter = new HashMap<>();
+      for (int b = 0; b < 256; b++) {
+        bytesByCharacter.putIfAbsent(characters[b], b);
+      }
+      byte[] folding = new byte[256];
+      for (int b = 0; b < 256; b++) {
+        Integer lowerCase = bytesByCharacter.get(Character.toLowerCase(characters[b]));
+        folding[b] = (byte) (lowerCase != null ? lowerCase : b);
+      }
+      return folding;
+    }
+
+    @Override
+    boolean find(byte[] text, int start, int end, AhoCorasickMatcher.MatchListener listener) {
+      return matcher.find(text, start, end, listener);
+    }
+  }
+
+  private static class RegexQuery extends Query {
+    private final Pattern pattern;
+
+    /** Matchers are reset for each line, so each thread keeps one along with the view of the line it is matching. */
+    private final ThreadLocal<LineText> lines;
+
+    RegexQuery(Charset charset, String regex, boolean ignoreCase) {
+      super(charset);
+      this.pattern = Pattern.compile(regex, ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+      this.lines = ThreadLocal.withInitial(() -> new LineText(characters, pattern));
+    }
+
+    @Override
+    boolean find(byte[] text, int start, int end, AhoCorasickMatcher.MatchListener listener) {
+      LineText line = lines.get();
+      Matcher matcher = line.reset(text, start, end);
+      while (matcher.find()) {
+        if (!listener.onMatch(0, start + matcher.start(), start + matcher.end())) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** A line's text as characters, decoded from the topic's buffer one at a time as they are read. */
+  private static final class LineText implements CharSequence {
+    private final char[] characters;
+    private final Matcher matcher;
+    private byte[] text;
+    private int start;
+    private int length;
+
+    LineText(char[] characters, Pattern pattern) {
+      this.characters = characters;
+      this.matcher = pattern.matcher(this);
+    }
+
+    Matcher reset(byte[] text, int start, int end) {
+      this.text = text;
+      this.start = start;
+      this.length = end - start;
+      return matcher.reset(this);
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= length) {
+        throw new IndexOutOfBoundsException("Index " + index + " outside line of length " + length);
+      }
+      return characters[text[start + index] & 0xff];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+      char[] decoded = new char[length];
+      for (int i = 0; i < length; i++) {
+        decoded[i] = characters[text[start + i] & 0xff];
+      }
+      return new String(decoded);
+    }
+  }
+
+  /** Passes on the matches in one topic, a line at a time, while hits are still wanted. */
+  private static final class TopicListener implements AhoCorasickMatcher.MatchListener {
+    private final Query query;
+    private final int topic;
+    private final AtomicLong remainingHits;
+    private final Consumer<Hit> hits;
+    private final byte[] buffer;
+    private int line;
+    private int lineStart;
+    private int lineEnd;
+    private long found;
+
+    TopicListener(Query query, int topic, AtomicLong remainingHits, Consumer<Hit> hits, byte[] buffer) {
+      this.query = query;
+      this.topic = topic;
+      this.remainingHits = remainingHits;
+      this.hits = hits;
+      this.buffer = buffer;
+    }
+
+    @Override
+    public boolean onMatch(int pattern, int start, int end) {
+      if (remainingHits.getAndDecrement() <= 0) {
+        return false;
+      }
+      hits.accept(new Hit(topic, line, start - lineStart, end - start, query.decode(buffer, lineStart, lineEnd)));
+      found++;
+      return true;
+    }
+  }
+
+  private final CompressedResidentAdvisorDocument document;
+  private final LongAdder bytesSearched = new LongAdder();
+
+  TopicSearcher(CompressedResidentAdvisorDocument document) {
+    this.document = document;
+  }
+
+  /** Returns a query for any of several strings, found in a single pass over the text whatever their number. */
+  static Query literals(Charset charset, List<String> literals, boolean ignoreCase) {
+    return new LiteralQuery(charset, literals, ignoreCase);
+  }
+
+  /** Returns a query for a regular expression, which is matched against each line separately. */
+  static Query regex(Charset charset, String regex, boolean ignoreCase) {
+    return new RegexQuery(charset, regex, ignoreCase);
+  }
+
+  /**
+   * Searches every topic on the current fork-join pool, or the common pool if not called from one.
+   *
+   * @return the number of hits passed to the consumer, at most {@code maxHits}
+   */
+  long search(Query query, long maxHits, Consumer<Hit> hits) {
+    return search(query, new AtomicLong(maxHits), hits);
+  }
+
+  /**
+   * @param remainingHits the number of hits still wanted, which may be shared with searches of other documents
+   */
+  long search(Query query, AtomicLong remainingHits, Consumer<Hit> hits) {
+    if (!query.charset.equals(document.decoder.getCharset())) {
+      throw new IllegalArgumentException("Query is for " + query.charset + " but document is "
+              + document.decoder.getCharset());
+    }
+    LongAdder found = new LongAdder();
+    // Stops handing out topics once no more hits are wanted
+    IntStream.range(0, document.getTopics().size()).parallel()
+            .anyMatch(topic -> remainingHits.get() <= 0 || !searchTopic(query, topic, remainingHits, hits, found));
+    return found.sum();
+  }
+
+  /**
+   * @return false if the search stopped because no more hits are wanted
+   */
+  private boolean searchTopic(Query query, int topic, AtomicLong remainingHits, Consumer<Hit> hits,
+          LongAdder found) {
+    byte[] buffer = scratchBuffers.get();
+    int length = document.decoder.decompress(document.getCompressedTopic(topic), buffer);
+    bytesSearched.add(length);
+
+    // Each line is a length byte and the text, then a length byte and the attributes; lengths include themselves
+    TopicListener listener = new TopicListener(query, topic, remainingHits, hits, buffer);
+    boolean carryOn = true;
+    for (int index = 0; index < length && carryOn; listener.line++) {
+      listener.lineStart = index + 1;
+      listener.lineEnd = index + (buffer[index] & 0xff);
+      carryOn = query.find(buffer, listener.lineStart, listener.lineEnd, listener);
+      index = listener.lineEnd + (buffer[listener.lineEnd] & 0xff);
+    }
+    found.add(listener.found);
+    return carryOn;
+  }
+
+  /** Returns the number of bytes of decompressed text searched so far. */
+  long getBytesSearched() {
+    return bytesSearched.sum();
+  }
+
+  /**
+   * Searches documents one after another, each in parallel across a pool of threads, and prints hits as they are found
+   * as {@code file:topic:line:column: text}, with one-based line and column numbers. Files that can't be read are
+   * skipped with a warning.
+   *
+   * @param summary where to print the number of hits and the time taken
+   * @return the number of hits
+   */
+  static long searchFiles(List<File> files, Query query, long maxHits, int threads, PrintStream out,
+          PrintStream summary) throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    AtomicLong remainingHits = new AtomicLong(maxHits);
+    long hitCount = 0;
+    long bytesSearched = 0;
+    int filesSearched = 0;
+    long start = System.nanoTime();
+    try {
+      for (File file : files) {
+        if (remainingHits.get() <= 0) {
+          break;
+        }
+        CompressedResidentAdvisorDocument document;
+        try {
+          document = new AdvisorDocumentLoader(query.charset).loadCompressedDocument(file);
+        } catch (IOException e) {
+          System.err.println("Warning: skipping " + file + ": " + e.getMessage());
+          continue;
+        }
+        TopicSearcher searcher = new TopicSearcher(document);
+        hitCount += pool.submit(() -> searcher.search(query, remainingHits,
+                hit -> out.println(file + ":" + hit.topic + ":" + (hit.line + 1) + ":" + (hit.column + 1) + ": "
+                        + hit.lineText))).get();
+        bytesSearched += searcher.getBytesSearched();
+        filesSearched++;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while searching", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException("Search failed", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    summary.printf(Locale.ROOT, "%d hits in %d files; searched %.2f MB of text in %.2f s (%.1f MB/s)\n", hitCount,
+            filesSearched, bytesSearched / 1e6, seconds, bytesSearched / 1e6 / seconds);
+    return hitCount;
+  }
+}
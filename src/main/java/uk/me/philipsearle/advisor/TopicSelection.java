@@ -0,0 +1,103 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.BitSet;
+
+/**
+ * Chooses a subset of a document's topics to export: ranges of local context IDs, topics with given global context
+ * IDs, or topics within a number of links of a starting topic. Only the topics whose links are followed are decoded,
+ * so selecting from an on-demand document reads just those topics from the file.
+ */
+class TopicSelection {
+  private final AdvisorDocument document;
+  private final BitSet selected = new BitSet();
+
+  TopicSelection(AdvisorDocument document) {
+    this.document = document;
+  }
+
+  /**
+   * Adds ranges of local context IDs, such as {@code 0-9,12,40-45}.
+   */
+  void addRanges(String ranges) {
+    int topicCount = document.getTopics().size();
+    for (String range : ranges.split(",")) {
+      String[] bounds = range.trim().split("-", 2);
+      int first;
+      int last;
+      try {
+        first = Integer.parseInt(bounds[0].trim());
+        last = bounds.length == 1 ? first : Integer.parseInt(bounds[1].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Topic range should look like 12 or 10-20, not " + range, e);
+      }
+      if (first < 0 || last < first || last >= topicCount) {
+        throw new IllegalArgumentException("Topic range " + range + " is outside 0-" + (topicCount - 1));
+      }
+      selected.set(first, last + 1);
+    }
+  }
+
+  /**
+   * Adds the topics with the given global context IDs, separated by commas.
+   */
+  void addContextIds(String contextIds) {
+    for (String contextId : contextIds.split(",")) {
+      selected.set(resolve(contextId.trim()));
+    }
+  }
+
+  /**
+   * Adds a topic and every topic reachable from it by following at most the given number of links. Links to other
+   * documents aren't followed.
+   *
+   * @param start a global context ID, or a local context ID as a number
+   */
+  void addReachable(String start, int depth) {
+    int topicCount = document.getTopics().size();
+    BitSet reached = new BitSet();
+    int[] frontier = { resolve(start) };
+    reached.set(frontier[0]);
+    for (int distance = 0; distance < depth && frontier.length > 0; distance++) {
+      BitSet next = new BitSet();
+      for (int topic : frontier) {
+        for (HelpTopicLine line : document.getTopics().get(topic).getText()) {
+          for (HelpTopicLine.Xref xref : line.getXrefs()) {
+            int target;
+            if (xref.localContextLink.isPresent()) {
+              target = xref.localContextLink.get();
+            } else {
+              HelpTopic targetTopic = document.getGlobalContextMap().get(xref.globalContextLink.get());
+              target = targetTopic == null ? -1 : (int) targetTopic.getLocalContextId();
+            }
+            if (target >= 0 && target < topicCount && !reached.get(target)) {
+              next.set(target);
+            }
+          }
+        }
+      }
+      reached.or(next);
+      frontier = next.stream().toArray();
+    }
+    selected.or(reached);
+  }
+
+  private int resolve(String contextId) {
+    HelpTopic topic = document.getGlobalContextMap().get(contextId);
+    if (topic != null) {
+      return (int) topic.getLocalContextId();
+    }
+    try {
+      int localContextId = Integer.parseInt(contextId);
+      if (localContextId >= 0 && localContextId < document.getTopics().size()) {
+        return localContextId;
+      }
+    } catch (NumberFormatException e) {
+      // Not a local context ID either
+    }
+    throw new IllegalArgumentException("No topic has the context ID " + contextId);
+  }
+
+  BitSet getSelectedTopics() {
+    return (BitSet) selected.clone();
+  }
+}
@@ -0,0 +1,66 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Splits a document's topics by local context ID range, producing each topic only when the split holding it reaches
+ * it. Splits are exact halves, so a parallel stream knows the size of every part and spreads the topics, and any
+ * decoding done to produce them, evenly across threads.
+ */
+class TopicSpliterator implements Spliterator<HelpTopic> {
+  private final IntFunction<HelpTopic> topics;
+  private int index;
+  private final int fence;
+
+  /**
+   * @param topics produces the topic with the given local context ID
+   */
+  TopicSpliterator(IntFunction<HelpTopic> topics, int topicCount) {
+    this(topics, 0, topicCount);
+  }
+
+  private TopicSpliterator(IntFunction<HelpTopic> topics, int origin, int fence) {
+    this.topics = topics;
+    this.index = origin;
+    this.fence = fence;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super HelpTopic> action) {
+    if (index >= fence) {
+      return false;
+    }
+    action.accept(topics.apply(index++));
+    return true;
+  }
+
+  @Override
+  public void forEachRemaining(Consumer<? super HelpTopic> action) {
+    while (index < fence) {
+      action.accept(topics.apply(index++));
+    }
+  }
+
+  @Override
+  public Spliterator<HelpTopic> trySplit() {
+    int middle = (index + fence) >>> 1;
+    if (middle <= index) {
+      return null;
+    }
+    Spliterator<HelpTopic> prefix = new TopicSpliterator(topics, index, middle);
+    index = middle;
+    return prefix;
+  }
+
+  @Override
+  public long estimateSize() {
+    return fence - index;
+  }
+
+  @Override
+  public int characteristics() {
+    return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+  }
+}
@@ -0,0 +1,126 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Content-addressed storage for decoded topic text, shared by any number of documents. Each topic is identified by the
+ * SHA-256 hash of its decompressed bytes, so identical topics in different files, or repeated within one file, are
+ * decoded once and share a single unmodifiable list of lines.
+ * <p>
+ * A library of related help files can then stay resident at roughly the size of its unique content. Text is held for
+ * the life of the store, so a store should be shared by documents that live about as long as each other.
+ */
+public class TopicStore {
+  private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is required of every Java platform", e);
+    }
+  });
+
+  /** A content hash, comparable by value so it can be used as a map key. */
+  private static final class ContentHash {
+    private final byte[] hash;
+    private final int hashCode;
+
+    ContentHash(byte[] hash) {
+      this.hash = hash;
+      this.hashCode = Arrays.hashCode(hash);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof ContentHash && Arrays.equals(hash, ((ContentHash) other).hash);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  private final ConcurrentMap<ContentHash, List<HelpTopicLine>> topics = new ConcurrentHashMap<>();
+
+  private final LongAdder lookups = new LongAdder();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder decodedBytes = new LongAdder();
+  private final LongAdder uniqueBytes = new LongAdder();
+
+  /**
+   * Returns the shared text of a decompressed topic, extracting it with the decoder only if the store hasn't already
+   * seen the same bytes decoded with the same character set.
+   */
+  List<HelpTopicLine> intern(TopicDecoder decoder, byte[] decompressedTopic, int length) {
+    MessageDigest digest = digests.get();
+    digest.update(decoder.getCharset().name().getBytes(StandardCharsets.US_ASCII));
+    digest.update((byte) 0);
+    digest.update(decompressedTopic, 0, length);
+    ContentHash key = new ContentHash(digest.digest());
+
+    lookups.increment();
+    decodedBytes.add(length);
+    List<HelpTopicLine> text = topics.get(key);
+    if (text != null) {
+      hits.increment();
+      return text;
+    }
+
+    // Two threads may both extract a new topic, but only the first copy is kept
+    List<HelpTopicLine> extracted = Collections.unmodifiableList(decoder.extractTopicText(decompressedTopic, length));
+    text = topics.putIfAbsent(key, extracted);
+    if (text != null) {
+      hits.increment();
+      return text;
+    }
+    uniqueBytes.add(length);
+    return extracted;
+  }
+
+  /** Returns the number of topics decoded through the store. */
+  public long getLookupCount() {
+    return lookups.sum();
+  }
+
+  /** Returns the number of decoded topics that were already in the store. */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /** Returns the number of distinct topics held. */
+  public int getUniqueTopicCount() {
+    return topics.size();
+  }
+
+  /** Returns the decompressed size of every topic decoded through the store. */
+  public long getDecodedBytes() {
+    return decodedBytes.sum();
+  }
+
+  /** Returns the decompressed size of the distinct topics held. */
+  public long getUniqueBytes() {
+    return uniqueBytes.sum();
+  }
+
+  void outputStatistics(PrintStream out) {
+    long lookupCount = getLookupCount();
+    long decoded = getDecodedBytes();
+    out.printf("Topics decoded: %d\n", lookupCount);
+    out.printf("Unique topics: %d\n", getUniqueTopicCount());
+    out.printf(Locale.ROOT, "Dedup hits: %d (%.1f%%)\n", getHitCount(),
+            lookupCount == 0 ? 0.0 : 100.0 * getHitCount() / lookupCount);
+    out.printf("Decompressed bytes: %d\n", decoded);
+    out.printf(Locale.ROOT, "Unique decompressed bytes: %d (%.1f%%)\n", getUniqueBytes(),
+            decoded == 0 ? 0.0 : 100.0 * getUniqueBytes() / decoded);
+  }
+}
@@ -0,0 +1,29 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Starts tasks on virtual threads, one per task, so that work dominated by blocking file I/O needn't be limited to a
+ * pool of platform threads. This is the Java 8 version, where virtual threads aren't available. On Java 21 and later
+ * the multi-release JAR substitutes the version in {@code src/main/java21}.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  static boolean isAvailable() {
+    return false;
+  }
+
+  /**
+   * Returns an executor that starts a new virtual thread for each task.
+   *
+   * @param name the prefix for the names of the threads, which are numbered from zero
+   * @throws UnsupportedOperationException if virtual threads aren't available
+   */
+  static ExecutorService newThreadPerTaskExecutor(String name) {
+    throw new UnsupportedOperationException("Virtual threads need Java 21 or later, not "
+            + System.getProperty("java.version"));
+  }
+}
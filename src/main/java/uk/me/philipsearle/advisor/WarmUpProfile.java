@@ -0,0 +1,107 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The most frequently accessed topics of a document, persisted so that they can be decoded ahead of time when the
+ * document is next opened. File format (big-endian):
+ * <ul>
+ * <li>WORD - format version, always 1</li>
+ * <li>UTF - original name of the document the profile was recorded from</li>
+ * <li>WORD - topic count of that document</li>
+ * <li>WORD - number of entries</li>
+ * <li>repeat, hottest topic first:
+ * <ul>
+ * <li>WORD - local context ID</li>
+ * <li>DWORD - access count</li>
+ * </ul>
+ * </li>
+ * </ul>
+ */
+public class WarmUpProfile {
+  private static final int PROFILE_VERSION = 1;
+
+  private final String originalName;
+  private final int topicCount;
+  private final int[] topics;
+  private final int[] accessCounts;
+
+  private WarmUpProfile(String originalName, int topicCount, int[] topics, int[] accessCounts) {
+    this.originalName = originalName;
+    this.topicCount = topicCount;
+    this.topics = topics;
+    this.accessCounts = accessCounts;
+  }
+
+  /**
+   * Records the {@code limit} most frequently accessed topics of a document.
+   */
+  public static WarmUpProfile fromDocument(AdvisorDocument document, int limit) {
+    TopicAccessTracker tracker = document.getAccessTracker();
+    int[] topics = tracker.getHottestTopics(limit);
+    int[] accessCounts = new int[topics.length];
+    for (int i = 0; i < topics.length; i++) {
+      accessCounts[i] = (int) Math.min(Integer.MAX_VALUE, tracker.getAccessCount(topics[i]));
+    }
+    return new WarmUpProfile(document.getOriginalName(), tracker.getTopicCount(), topics, accessCounts);
+  }
+
+  public static WarmUpProfile read(File profileFile) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(profileFile)))) {
+      int version = in.readUnsignedShort();
+      if (version != PROFILE_VERSION) {
+        throw new IOException("Incorrect warm-up profile version: " + version + ", expected " + PROFILE_VERSION);
+      }
+
+      String originalName = in.readUTF();
+      int topicCount = in.readUnsignedShort();
+      int entryCount = in.readUnsignedShort();
+      int[] topics = new int[entryCount];
+      int[] accessCounts = new int[entryCount];
+      for (int i = 0; i < entryCount; i++) {
+        topics[i] = in.readUnsignedShort();
+        accessCounts[i] = in.readInt();
+      }
+      return new WarmUpProfile(originalName, topicCount, topics, accessCounts);
+    }
+  }
+
+  public void write(File profileFile) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(profileFile)))) {
+      out.writeShort(PROFILE_VERSION);
+      out.writeUTF(originalName);
+      out.writeShort(topicCount);
+      out.writeShort(topics.length);
+      for (int i = 0; i < topics.length; i++) {
+        out.writeShort(topics[i]);
+        out.writeInt(accessCounts[i]);
+      }
+    }
+  }
+
+  public String getOriginalName() {
+    return originalName;
+  }
+
+  public int getTopicCount() {
+    return topicCount;
+  }
+
+  /** Returns whether this profile was recorded from a document with the same name and number of topics. */
+  public boolean matches(AdvisorDocument document) {
+    return originalName.equals(document.getOriginalName()) && topicCount == document.getTopics().size();
+  }
+
+  /** Returns up to {@code limit} topics, hottest first. */
+  public int[] getHottestTopics(int limit) {
+    return Arrays.copyOf(topics, Math.min(limit, topics.length));
+  }
+}
@@ -0,0 +1,146 @@
+package uk.me.philipsearle.advisor;
+
+import java.io.File;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events covering document loading, topic decoding and line rendering. This replaces the no-op
+ * Java 8 version when running on Java 11 or later. The events are disabled by default; enable them by name, e.g.
+ * {@code uk.me.philipsearle.advisor.TopicDecode}, in the .jfc settings file used for a recording.
+ * <p>
+ * Each {@code begin} method returns an opaque handle, which may be null, to pass to the matching {@code end} method.
+ * Each asks the event's type whether it is enabled before creating the event, so that a disabled event costs a field
+ * read rather than an event object per call, and an event enabled on a recording that is already running takes effect
+ * at once.
+ */
+final class DocumentEvents {
+
+  @Name("uk.me.philipsearle.advisor.DocumentLoad")
+  @Label("Document Load")
+  @Category("Advisor")
+  @Enabled(false)
+  @StackTrace(false)
+  static class DocumentLoadEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Mode")
+    String mode;
+
+    @Label("Topic Count")
+    int topicCount;
+
+    @Label("File Size")
+    @DataAmount
+    long fileSize;
+  }
+
+  @Name("uk.me.philipsearle.advisor.TopicDecode")
+  @Label("Topic Decode")
+  @Category("Advisor")
+  @Enabled(false)
+  @StackTrace(false)
+  static class TopicDecodeEvent extends Event {
+    @Label("Topic")
+    int topic;
+
+    @Label("Compressed Size")
+    @DataAmount
+    int compressedLength;
+
+    @Label("Decompressed Size")
+    @DataAmount
+    int decompressedLength;
+  }
+
+  @Name("uk.me.philipsearle.advisor.LineRender")
+  @Label("Line Render")
+  @Category("Advisor")
+  @Enabled(false)
+  @StackTrace(false)
+  static class LineRenderEvent extends Event {
+    @Label("Text Length")
+    int textLength;
+
+    @Label("Rendered Length")
+    int renderedLength;
+  }
+
+  private static final EventType DOCUMENT_LOAD = EventType.getEventType(DocumentLoadEvent.class);
+  private static final EventType TOPIC_DECODE = EventType.getEventType(TopicDecodeEvent.class);
+  private static final EventType LINE_RENDER = EventType.getEventType(LineRenderEvent.class);
+
+  private DocumentEvents() {
+  }
+
+  static Object beginDocumentLoad() {
+    if (!DOCUMENT_LOAD.isEnabled()) {
+      return null;
+    }
+    DocumentLoadEvent event = new DocumentLoadEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * @param mode how the document was loaded, e.g. {@code full} or {@code on-demand}
+   */
+  static void endDocumentLoad(Object handle, File document, String mode, int topicCount) {
+    DocumentLoadEvent event = (DocumentLoadEvent) handle;
+    if (event == null || !event.shouldCommit()) {
+      return;
+    }
+    event.file = document.getPath();
+    event.mode = mode;
+    event.topicCount = topicCount;
+    event.fileSize = document.length();
+    event.commit();
+  }
+
+  static Object beginTopicDecode() {
+    if (!TOPIC_DECODE.isEnabled()) {
+      return null;
+    }
+    TopicDecodeEvent event = new TopicDecodeEvent();
+    event.begin();
+    return event;
+  }
+
+  static void endTopicDecode(Object handle, int topic, int compressedLength, int decompressedLength) {
+    TopicDecodeEvent event = (TopicDecodeEvent) handle;
+    if (event == null || !event.shouldCommit()) {
+      return;
+    }
+    event.topic = topic;
+    event.compressedLength = compressedLength;
+    event.decompressedLength = decompressedLength;
+    event.commit();
+  }
+
+  static Object beginLineRender() {
+    if (!LINE_RENDER.isEnabled()) {
+      return null;
+    }
+    LineRenderEvent event = new LineRenderEvent();
+    event.begin();
+    return event;
+  }
+
+  static void endLineRender(Object handle, int textLength, int renderedLength) {
+    LineRenderEvent event = (LineRenderEvent) handle;
+    if (event == null || !event.shouldCommit()) {
+      return;
+    }
+    event.textLength = textLength;
+    event.renderedLength = renderedLength;
+    event.commit();
+  }
+}
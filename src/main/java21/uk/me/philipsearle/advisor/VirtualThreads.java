@@ -0,0 +1,22 @@
+package uk.me.philipsearle.advisor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Starts tasks on virtual threads, one per task. This is the Java 21 version, which replaces the Java 8 version in the
+ * multi-release JAR.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  static boolean isAvailable() {
+    return true;
+  }
+
+  static ExecutorService newThreadPerTaskExecutor(String name) {
+    return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+  }
+}
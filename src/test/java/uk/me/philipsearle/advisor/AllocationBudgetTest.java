@@ -0,0 +1,196 @@
+package uk.me.philipsearle.advisor;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the decode and render hot paths stay within a budget of bytes allocated per operation, so that a stray
+ * string concatenation or boxed list in {@link TopicDecoder#decompress(byte[], byte[])}, {@link CompresedTopicIterator}
+ * or {@link HelpTopicLine} fails the build rather than showing up as a slow drift. Each hot path is run over every
+ * topic of some generated documents, after enough warm-up passes for the JIT to have compiled it, and the allocation of
+ * the current thread is read through {@link ThreadAllocation}. The budgets are in {@code budgets.properties}.
+ */
+public class AllocationBudgetTest {
+  private static final int WARM_UP_PASSES = 20;
+  private static final int MEASURED_PASSES = 5;
+
+  @ClassRule
+  public static final TemporaryFolder fixtureFolder = new TemporaryFolder();
+
+  /** A document with everything the hot paths need prepared up front, so it isn't counted against them. */
+  private static class Fixture {
+    final CompressedResidentAdvisorDocument document;
+    final byte[][] compressedTopics;
+    final byte[][] decompressedTopics;
+    final List<List<HelpTopicLine>> topicText = new ArrayList<>();
+    final byte[] scratch = new byte[TopicDecoder.SCRATCH_LENGTH];
+
+    Fixture(CompressedResidentAdvisorDocument document) {
+      this.document = document;
+      int topicCount = document.getTopics().size();
+      compressedTopics = new byte[topicCount][];
+      decompressedTopics = new byte[topicCount][];
+      for (int topic = 0; topic < topicCount; topic++) {
+        compressedTopics[topic] = document.getCompressedTopic(topic);
+        decompressedTopics[topic] = document.decoder.decompress(compressedTopics[topic]);
+        topicText.add(document.getTopics().get(topic).getText());
+      }
+    }
+  }
+
+  /** One measured hot path. */
+  private interface HotPath {
+    /**
+     * Runs the hot path once over every topic of a document.
+     *
+     * @return the number of operations performed, e.g. topics or lines
+     */
+    long run(Fixture fixture) throws URISyntaxException;
+  }
+
+  private static final List<Fixture> fixtures = new ArrayList<>();
+
+  /**
+   * Every hot path adds something from each result here, so the JIT can't prove the results unused and optimise away
+   * the allocations being measured.
+   */
+  private static long sink;
+  private static final Properties budgets = new Properties();
+
+  @BeforeClass
+  public static void generateFixtures() throws IOException {
+    Assume.assumeTrue("This JVM can't measure per-thread allocation", ThreadAllocation.isSupported());
+    try (InputStream in = AllocationBudgetTest.class.getResourceAsStream("/budgets.properties")) {
+      budgets.load(in);
+    }
+
+    // One document using every compression stage the format has, and one using none
+    SyntheticDocumentGenerator.Settings compressed = new SyntheticDocumentGenerator.Settings();
+    compressed.topicCount = 200;
+    fixtures.add(generate(compressed, "COMPRESS.HLP"));
+
+    SyntheticDocumentGenerator.Settings plain = new SyntheticDocumentGenerator.Settings();
+    plain.topicCount = 100;
+    plain.keywordTable = false;
+    plain.runLengthEncoding = false;
+    plain.huffmanCoding = false;
+    plain.seed = 2;
+    fixtures.add(generate(plain, "PLAIN.HLP"));
+  }
+
+  private static Fixture generate(SyntheticDocumentGenerator.Settings settings, String name) throws IOException {
+    Charset charset = Charset.forName("CP850");
+    File file = new File(fixtureFolder.getRoot(), name);
+    new SyntheticDocumentGenerator(charset, settings).write(file);
+    return new Fixture(new AdvisorDocumentLoader(charset).loadCompressedDocument(file));
+  }
+
+  @Test
+  public void decompress() throws URISyntaxException {
+    assertWithinBudget("decompress", fixture -> {
+      for (byte[] compressedTopic : fixture.compressedTopics) {
+        sink += fixture.document.decoder.decompress(compressedTopic, fixture.scratch);
+      }
+      return fixture.compressedTopics.length;
+    });
+  }
+
+  @Test
+  public void extractTopicText() throws URISyntaxException {
+    assertWithinBudget("extractTopicText", fixture -> {
+      long lines = 0;
+      for (byte[] decompressedTopic : fixture.decompressedTopics) {
+        int size = fixture.document.decoder.extractTopicText(decompressedTopic, decompressedTopic.length).size();
+        sink += size;
+        lines += size;
+      }
+      return lines;
+    });
+  }
+
+  @Test
+  public void getFormattedText() throws URISyntaxException {
+    assertWithinBudget("getFormattedText", fixture -> {
+      long lines = 0;
+      for (List<HelpTopicLine> text : fixture.topicText) {
+        for (HelpTopicLine line : text) {
+          sink += line.getFormattedText().size();
+          lines++;
+        }
+      }
+      return lines;
+    });
+  }
+
+  @Test
+  public void getXrefs() throws URISyntaxException {
+    assertWithinBudget("getXrefs", fixture -> {
+      long lines = 0;
+      for (List<HelpTopicLine> text : fixture.topicText) {
+        for (HelpTopicLine line : text) {
+          sink += line.getXrefs().size();
+          lines++;
+        }
+      }
+      return lines;
+    });
+  }
+
+  @Test
+  public void getHtmlFormattedText() throws URISyntaxException {
+    assertWithinBudget("getHtmlFormattedText", fixture -> {
+      long lines = 0;
+      for (List<HelpTopicLine> text : fixture.topicText) {
+        for (HelpTopicLine line : text) {
+          sink += line.getHtmlFormattedText(fixture.document.getGlobalContextMap()).length();
+          lines++;
+        }
+      }
+      return lines;
+    });
+  }
+
+  private static void assertWithinBudget(String name, HotPath hotPath) throws URISyntaxException {
+    for (int pass = 0; pass < WARM_UP_PASSES; pass++) {
+      runOnAll(hotPath);
+    }
+
+    sink = 0;
+    long operations = 0;
+    long allocatedBefore = ThreadAllocation.getAllocatedBytes();
+    for (int pass = 0; pass < MEASURED_PASSES; pass++) {
+      operations += runOnAll(hotPath);
+    }
+    long allocated = ThreadAllocation.getAllocatedBytes() - allocatedBefore;
+
+    assertTrue(name + " produced no results to measure", sink != 0);
+
+    double bytesPerOperation = operations == 0 ? 0 : (double) allocated / operations;
+    long budget = Long.parseLong(budgets.getProperty(name).trim());
+    assertTrue(String.format(Locale.ROOT, "%s allocated %.1f bytes per operation, over its budget of %d", name,
+            bytesPerOperation, budget), bytesPerOperation <= budget);
+  }
+
+  private static long runOnAll(HotPath hotPath) throws URISyntaxException {
+    long operations = 0;
+    for (Fixture fixture : fixtures) {
+      operations += hotPath.run(fixture);
+    }
+    return operations;
+  }
+}